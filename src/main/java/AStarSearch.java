@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * Reusable A* search over the dense indices of a compact graph.
+ *
+ * All per-query state lives in arrays sized to the graph: tentative distances, heuristic
+ * values, parents and an indexed heap with decrease-key. Instead of clearing the arrays
+ * between queries, each query bumps a generation number, and an entry counts only if its
+ * stamp matches the current generation. Once the buffers exist a query allocates nothing.
+ *
+ * An instance is not thread-safe; GraphDB hands out one per thread.
+ */
+public class AStarSearch {
+    private final CompactGraph g;
+    private final IndexedHeap heap;
+    private final double[] dist;
+    private final double[] estimate;
+    private final int[] parent;
+    /** Generation in which dist, estimate and parent of a vertex were last written. */
+    private final int[] reached;
+    /** Generation in which a vertex was last settled. */
+    private final int[] settledIn;
+    /** The path of the last query, from start to destination, in path[0..pathLength). */
+    private final int[] path;
+    private int pathLength;
+    private int generation;
+    private int settled;
+
+    public AStarSearch(CompactGraph g) {
+        this.g = g;
+        int n = g.size();
+        heap = new IndexedHeap(n);
+        dist = new double[n];
+        estimate = new double[n];
+        parent = new int[n];
+        reached = new int[n];
+        settledIn = new int[n];
+        path = new int[n];
+    }
+
+    /**
+     * Finds a shortest path from s to t.
+     * @param s         Dense index of the start vertex.
+     * @param t         Dense index of the destination vertex.
+     * @param landmarks Landmark tables to tighten the great-circle bound, or null.
+     * @return The number of vertices on the path, read with {@link #pathVertex(int)};
+     * 0 if t cannot be reached from s.
+     */
+    int search(int s, int t, Landmarks landmarks) {
+        nextGeneration();
+        settled = 0;
+        pathLength = 0;
+        double tLon = g.lonAt(t);
+        double tLat = g.latAt(t);
+        reach(s, -1, 0, tLon, tLat, t, landmarks);
+        heap.push(s, estimate[s]);
+        while (!heap.isEmpty()) {
+            int v = heap.pop();
+            settledIn[v] = generation;
+            settled++;
+            if (v == t) {
+                break;
+            }
+            double d = dist[v];
+            for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                int w = g.target(e);
+                if (settledIn[w] == generation) {
+                    continue;
+                }
+                double dw = d + g.length(e);
+                if (reached[w] != generation) {
+                    reach(w, v, dw, tLon, tLat, t, landmarks);
+                    heap.push(w, dw + estimate[w]);
+                } else if (dw < dist[w]) {
+                    dist[w] = dw;
+                    parent[w] = v;
+                    heap.push(w, dw + estimate[w]);
+                }
+            }
+        }
+        heap.clear();
+        if (settledIn[t] == generation) {
+            for (int v = t; v >= 0; v = parent[v]) {
+                path[pathLength++] = v;
+            }
+            for (int i = 0, j = pathLength - 1; i < j; i++, j--) {
+                int tmp = path[i];
+                path[i] = path[j];
+                path[j] = tmp;
+            }
+        }
+        return pathLength;
+    }
+
+    /** Records the first tentative distance of w and evaluates its heuristic once. */
+    private void reach(int w, int from, double d, double tLon, double tLat, int t,
+                       Landmarks landmarks) {
+        reached[w] = generation;
+        dist[w] = d;
+        parent[w] = from;
+        double h = GraphDB.distance(g.lonAt(w), g.latAt(w), tLon, tLat);
+        if (landmarks != null) {
+            h = Math.max(h, landmarks.lowerBound(w, t));
+        }
+        estimate[w] = h;
+    }
+
+    /** Starts a new generation, wiping the stamps only when the counter wraps around. */
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settledIn, 0);
+            generation = 1;
+        }
+    }
+
+    /** Returns the i-th vertex of the last path found. */
+    int pathVertex(int i) {
+        return path[i];
+    }
+
+    /** Returns the number of vertices settled by the last query. */
+    int settled() {
+        return settled;
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+/**
+ * Reusable bidirectional A* search over the dense indices of a compact graph.
+ *
+ * Both searches use the average potential pf(v) = (h(v, t) - h(s, v)) / 2 for the forward
+ * search and pr(v) = -pf(v) for the reverse search, where h is the great-circle distance.
+ * The two potentials are consistent and sum to zero, so both searches see the same reduced
+ * edge costs and the search may stop as soon as the two smallest keys add up to at least the
+ * best s-t path found so far.
+ *
+ * As in AStarSearch, the per-query state lives in arrays sized to the graph, one indexed
+ * heap per direction, and generation stamps instead of clearing, so once the buffers exist a
+ * query allocates nothing. An instance is not thread-safe; GraphDB hands out one per thread.
+ */
+public class BidirectionalSearch {
+    private final CompactGraph g;
+    private final IndexedHeap heapF;
+    private final IndexedHeap heapR;
+    private final double[] distF;
+    private final double[] distR;
+    private final int[] parentF;
+    private final int[] parentR;
+    /** Generation in which the distance and parent of a vertex were last written. */
+    private final int[] reachedF;
+    private final int[] reachedR;
+    /** Generation in which a vertex was last settled. */
+    private final int[] settledF;
+    private final int[] settledR;
+    /** The forward potential of a vertex, evaluated once per query. */
+    private final double[] potential;
+    private final int[] potentialIn;
+    /** The path of the last query, from start to destination, in path[0..pathLength). */
+    private final int[] path;
+    private int pathLength;
+    private int generation;
+    private int settled;
+    private int s;
+    private int t;
+    /** Length of the best path found so far, and the vertex where it meets. */
+    private double best;
+    private int meet;
+
+    public BidirectionalSearch(CompactGraph g) {
+        this.g = g;
+        int n = g.size();
+        heapF = new IndexedHeap(n);
+        heapR = new IndexedHeap(n);
+        distF = new double[n];
+        distR = new double[n];
+        parentF = new int[n];
+        parentR = new int[n];
+        reachedF = new int[n];
+        reachedR = new int[n];
+        settledF = new int[n];
+        settledR = new int[n];
+        potential = new double[n];
+        potentialIn = new int[n];
+        path = new int[n];
+    }
+
+    /**
+     * Finds a shortest path from s to t.
+     * @param s Dense index of the start vertex.
+     * @param t Dense index of the destination vertex.
+     * @return The number of vertices on the path, read with {@link #pathVertex(int)};
+     * 0 if t cannot be reached from s.
+     */
+    int search(int s, int t) {
+        nextGeneration();
+        this.s = s;
+        this.t = t;
+        settled = 0;
+        pathLength = 0;
+        best = Double.POSITIVE_INFINITY;
+        meet = -1;
+        reach(s, -1, 0, distF, parentF, reachedF);
+        reach(t, -1, 0, distR, parentR, reachedR);
+        heapF.push(s, potential(s));
+        heapR.push(t, -potential(t));
+        if (s == t) {
+            best = 0;
+            meet = s;
+        }
+        while (!heapF.isEmpty() && !heapR.isEmpty()
+                && heapF.peekKey() + heapR.peekKey() < best) {
+            if (heapF.peekKey() <= heapR.peekKey()) {
+                expand(heapF.pop(), heapF, distF, parentF, reachedF, settledF,
+                        distR, reachedR, 1);
+            } else {
+                expand(heapR.pop(), heapR, distR, parentR, reachedR, settledR,
+                        distF, reachedF, -1);
+            }
+        }
+        heapF.clear();
+        heapR.clear();
+        if (meet >= 0) {
+            for (int v = meet; v >= 0; v = parentF[v]) {
+                path[pathLength++] = v;
+            }
+            for (int i = 0, j = pathLength - 1; i < j; i++, j--) {
+                int tmp = path[i];
+                path[i] = path[j];
+                path[j] = tmp;
+            }
+            for (int v = parentR[meet]; v >= 0; v = parentR[v]) {
+                path[pathLength++] = v;
+            }
+        }
+        return pathLength;
+    }
+
+    /**
+     * Settles v in one direction and relaxes its edges.
+     * @param sign 1 for the forward search, -1 for the reverse search.
+     */
+    private void expand(int v, IndexedHeap heap, double[] dist, int[] parent, int[] reached,
+                        int[] settledIn, double[] otherDist, int[] otherReached, int sign) {
+        settledIn[v] = generation;
+        settled++;
+        double d = dist[v];
+        for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+            int w = g.target(e);
+            if (settledIn[w] == generation) {
+                continue;
+            }
+            double dw = d + g.length(e);
+            if (reached[w] != generation || dw < dist[w]) {
+                reach(w, v, dw, dist, parent, reached);
+                heap.push(w, dw + sign * potential(w));
+                if (otherReached[w] == generation && dw + otherDist[w] < best) {
+                    best = dw + otherDist[w];
+                    meet = w;
+                }
+            }
+        }
+    }
+
+    private void reach(int w, int from, double d, double[] dist, int[] parent, int[] reached) {
+        reached[w] = generation;
+        dist[w] = d;
+        parent[w] = from;
+    }
+
+    /** Forward potential of v; the reverse potential is its negation. */
+    private double potential(int v) {
+        if (potentialIn[v] != generation) {
+            double lon = g.lonAt(v);
+            double lat = g.latAt(v);
+            potential[v] = (GraphDB.distance(lon, lat, g.lonAt(t), g.latAt(t))
+                    - GraphDB.distance(lon, lat, g.lonAt(s), g.latAt(s))) / 2;
+            potentialIn[v] = generation;
+        }
+        return potential[v];
+    }
+
+    /** Starts a new generation, wiping the stamps only when the counter wraps around. */
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reachedF, 0);
+            Arrays.fill(reachedR, 0);
+            Arrays.fill(settledF, 0);
+            Arrays.fill(settledR, 0);
+            Arrays.fill(potentialIn, 0);
+            generation = 1;
+        }
+    }
+
+    /** Returns the i-th vertex of the last path found. */
+    int pathVertex(int i) {
+        return path[i];
+    }
+
+    /** Returns the number of vertices settled by the last query. */
+    int settled() {
+        return settled;
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * Reusable query over a contraction hierarchy: a bidirectional Dijkstra search that only
+ * climbs the upward graph, followed by unpacking the shortcuts of the path found.
+ *
+ * The two searches alternate, and each one stops once its smallest key is no shorter than
+ * the best path through a vertex reached from both sides. As in AStarSearch, the per-query
+ * state lives in arrays sized to the graph, one indexed heap per direction, and generation
+ * stamps instead of clearing; the path and the unpacking stack only grow. A query therefore
+ * touches just the few hundred vertices it settles. An instance is not thread-safe; GraphDB
+ * hands out one per thread.
+ */
+public class CHSearch {
+    private final ContractionHierarchy ch;
+    private final IndexedHeap heapF;
+    private final IndexedHeap heapR;
+    private final double[] distF;
+    private final double[] distR;
+    /** The vertex each vertex was reached from, or -1 for the roots. */
+    private final int[] parentF;
+    private final int[] parentR;
+    /** The upward slot each vertex was reached through. */
+    private final int[] viaF;
+    private final int[] viaR;
+    /** Generation in which the distance, parent and slot of a vertex were last written. */
+    private final int[] reachedF;
+    private final int[] reachedR;
+    /** The path of the last query, from start to destination, in path[0..pathLength). */
+    private int[] path = new int[64];
+    private int pathLength;
+    /** Scratch space for the upward slots below the meeting vertex and for unpacking. */
+    private int[] slots = new int[64];
+    private int[] stack = new int[64];
+    private int generation;
+    private int settled;
+    /** Length of the best path found so far, and the vertex where it meets. */
+    private double best;
+    private int meet;
+
+    public CHSearch(ContractionHierarchy ch) {
+        this.ch = ch;
+        int n = ch.size();
+        heapF = new IndexedHeap(n);
+        heapR = new IndexedHeap(n);
+        distF = new double[n];
+        distR = new double[n];
+        parentF = new int[n];
+        parentR = new int[n];
+        viaF = new int[n];
+        viaR = new int[n];
+        reachedF = new int[n];
+        reachedR = new int[n];
+    }
+
+    /**
+     * Finds a shortest path from s to t.
+     * @param s Dense index of the start vertex.
+     * @param t Dense index of the destination vertex.
+     * @return The number of vertices on the path, read with {@link #pathVertex(int)};
+     * 0 if t cannot be reached from s.
+     */
+    int search(int s, int t) {
+        nextGeneration();
+        settled = 0;
+        pathLength = 0;
+        best = Double.POSITIVE_INFINITY;
+        meet = -1;
+        reach(s, -1, -1, 0, distF, parentF, viaF, reachedF);
+        reach(t, -1, -1, 0, distR, parentR, viaR, reachedR);
+        heapF.push(s, 0);
+        heapR.push(t, 0);
+        if (s == t) {
+            best = 0;
+            meet = s;
+        }
+        boolean forward = true;
+        while (true) {
+            boolean canF = !heapF.isEmpty() && heapF.peekKey() < best;
+            boolean canR = !heapR.isEmpty() && heapR.peekKey() < best;
+            if (!canF && !canR) {
+                break;
+            }
+            if (!canF || (canR && !forward)) {
+                expand(heapR, distR, parentR, viaR, reachedR, distF, reachedF);
+                forward = true;
+            } else {
+                expand(heapF, distF, parentF, viaF, reachedF, distR, reachedR);
+                forward = false;
+            }
+        }
+        heapF.clear();
+        heapR.clear();
+        if (meet >= 0) {
+            unpack(s, t);
+        }
+        return pathLength;
+    }
+
+    /** Settles the smallest vertex of one direction and relaxes its upward edges. */
+    private void expand(IndexedHeap heap, double[] dist, int[] parent, int[] via,
+                        int[] reached, double[] otherDist, int[] otherReached) {
+        int v = heap.pop();
+        settled++;
+        double d = dist[v];
+        for (int e = ch.upBegin(v); e < ch.upEnd(v); e++) {
+            int w = ch.upTarget(e);
+            double dw = d + ch.upWeight(e);
+            if (reached[w] != generation || dw < dist[w]) {
+                reach(w, v, e, dw, dist, parent, via, reached);
+                heap.push(w, dw);
+                if (otherReached[w] == generation && dw + otherDist[w] < best) {
+                    best = dw + otherDist[w];
+                    meet = w;
+                }
+            }
+        }
+    }
+
+    private void reach(int w, int from, int slot, double d, double[] dist, int[] parent,
+                       int[] via, int[] reached) {
+        reached[w] = generation;
+        dist[w] = d;
+        parent[w] = from;
+        via[w] = slot;
+    }
+
+    /** Expands the upward edges on both sides of the meeting vertex into a full path. */
+    private void unpack(int s, int t) {
+        int up = 0;
+        for (int v = meet; v != s; v = parentF[v]) {
+            slots = ensure(slots, up + 1);
+            slots[up++] = viaF[v];
+        }
+        add(s);
+        for (int v = s, i = up - 1; i >= 0; i--) {
+            int w = ch.upTarget(slots[i]);
+            unpackEdge(v, w, slots[i]);
+            v = w;
+        }
+        for (int v = meet; v != t; v = parentR[v]) {
+            unpackEdge(v, parentR[v], viaR[v]);
+        }
+    }
+
+    /**
+     * Appends the original vertices after {@code from} on the edge from-to, which is stored
+     * as upward slot e of its lower ranked endpoint.
+     */
+    private void unpackEdge(int from, int to, int e) {
+        int size = 0;
+        stack = ensure(stack, 3);
+        stack[size++] = from;
+        stack[size++] = to;
+        stack[size++] = e;
+        while (size > 0) {
+            int slot = stack[--size];
+            int b = stack[--size];
+            int a = stack[--size];
+            int m = ch.upMiddle(slot);
+            if (m < 0) {
+                add(b);
+                continue;
+            }
+            /* The bypassed vertex ranks below both ends, so both halves are stored at m. */
+            stack = ensure(stack, size + 6);
+            stack[size++] = m;
+            stack[size++] = b;
+            stack[size++] = ch.findUp(m, b);
+            stack[size++] = a;
+            stack[size++] = m;
+            stack[size++] = ch.findUp(m, a);
+        }
+    }
+
+    private void add(int v) {
+        path = ensure(path, pathLength + 1);
+        path[pathLength++] = v;
+    }
+
+    /** Returns a, or a copy of it twice as large if it holds fewer than size elements. */
+    private static int[] ensure(int[] a, int size) {
+        return size <= a.length ? a : Arrays.copyOf(a, Math.max(size, a.length * 2));
+    }
+
+    /** Starts a new generation, wiping the stamps only when the counter wraps around. */
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reachedF, 0);
+            Arrays.fill(reachedR, 0);
+            generation = 1;
+        }
+    }
+
+    /** Returns the i-th vertex of the last path found. */
+    int pathVertex(int i) {
+        return path[i];
+    }
+
+    /** Returns the number of vertices settled by the last query. */
+    int settled() {
+        return settled;
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, array-backed storage for the cleaned road graph.
+ *
+ * OSM ids are remapped to dense int indices in [0, size()), sorted by id so that
+ * {@link #indexOf(long)} is a binary search. Coordinates live in parallel primitive arrays
+ * and adjacency is stored in compressed-sparse-row (CSR) form: the edges leaving vertex v
+ * are the slots [offsets[v], offsets[v + 1]) of the targets and lengths arrays. Edge lengths
+ * are the great-circle distances in miles, precomputed once at build time.
+ *
+ * The id-based methods (vertices, adjacent, lon, lat) mirror the original GraphDB API; the
+ * index-based methods are meant for hot loops such as path search.
+ */
+public class CompactGraph {
+    /** Dense index to OSM id, ascending. */
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    /** CSR row pointers; the edges of v are [offsets[v], offsets[v + 1]). */
+    private final int[] offsets;
+    /** Dense index of the head of every edge. */
+    private final int[] targets;
+    /** Great-circle length of every edge in miles. */
+    private final double[] lengths;
+    /** Distinct way names; a vertex refers to them by position. */
+    private final String[] wayNameTable;
+    /** CSR row pointers into wayRefs, like offsets. */
+    private final int[] wayOffsets;
+    /** Index into wayNameTable, or -1 for an unnamed way. */
+    private final int[] wayRefs;
+
+    private CompactGraph(long[] ids, double[] lons, double[] lats, int[] offsets,
+                         int[] targets, double[] lengths, String[] wayNameTable,
+                         int[] wayOffsets, int[] wayRefs) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.lengths = lengths;
+        this.wayNameTable = wayNameTable;
+        this.wayOffsets = wayOffsets;
+        this.wayRefs = wayRefs;
+    }
+
+    /**
+     * Freezes the mutable node map built during parsing into CSR arrays. Neighbor order
+     * and way name order of every vertex are preserved.
+     *
+     * @param nodes The cleaned vertices of the graph, keyed by OSM id.
+     * @return A compact copy of the graph.
+     */
+    static CompactGraph from(Map<Long, GraphDB.Node> nodes) {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (long id : nodes.keySet()) {
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int[] offsets = new int[n + 1];
+        int[] wayOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            GraphDB.Node node = nodes.get(ids[v]);
+            lons[v] = node.lon;
+            lats[v] = node.lat;
+            offsets[v + 1] = offsets[v] + node.adj.size();
+            wayOffsets[v + 1] = wayOffsets[v] + node.ways.size();
+        }
+
+        int[] targets = new int[offsets[n]];
+        double[] lengths = new double[offsets[n]];
+        int[] wayRefs = new int[wayOffsets[n]];
+        Map<String, Integer> wayNameIndex = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            GraphDB.Node node = nodes.get(ids[v]);
+            int e = offsets[v];
+            for (long w : node.adj) {
+                int t = Arrays.binarySearch(ids, w);
+                targets[e] = t;
+                lengths[e] = GraphDB.distance(lons[t], lats[t], lons[v], lats[v]);
+                e++;
+            }
+            int r = wayOffsets[v];
+            for (String way : node.ways) {
+                if (way == null) {
+                    wayRefs[r++] = -1;
+                    continue;
+                }
+                Integer ref = wayNameIndex.get(way);
+                if (ref == null) {
+                    ref = wayNameIndex.size();
+                    wayNameIndex.put(way, ref);
+                }
+                wayRefs[r++] = ref;
+            }
+        }
+        String[] wayNameTable = new String[wayNameIndex.size()];
+        for (Map.Entry<String, Integer> entry : wayNameIndex.entrySet()) {
+            wayNameTable[entry.getValue()] = entry.getKey();
+        }
+        return new CompactGraph(ids, lons, lats, offsets, targets, lengths, wayNameTable,
+                wayOffsets, wayRefs);
+    }
+
+    /** Writes all arrays to a graph snapshot, in the order {@link #read} expects. */
+    void write(DataOutputStream out) throws IOException {
+        GraphSnapshot.writeLongs(out, ids);
+        GraphSnapshot.writeDoubles(out, lons);
+        GraphSnapshot.writeDoubles(out, lats);
+        GraphSnapshot.writeInts(out, offsets);
+        GraphSnapshot.writeInts(out, targets);
+        GraphSnapshot.writeDoubles(out, lengths);
+        out.writeInt(wayNameTable.length);
+        for (String way : wayNameTable) {
+            GraphSnapshot.writeString(out, way);
+        }
+        GraphSnapshot.writeInts(out, wayOffsets);
+        GraphSnapshot.writeInts(out, wayRefs);
+    }
+
+    /**
+     * Reads a graph written by {@link #write}.
+     *
+     * @throws IllegalArgumentException If the arrays do not describe a valid graph.
+     */
+    static CompactGraph read(ByteBuffer buf) {
+        long[] ids = GraphSnapshot.readLongs(buf);
+        double[] lons = GraphSnapshot.readDoubles(buf);
+        double[] lats = GraphSnapshot.readDoubles(buf);
+        int[] offsets = GraphSnapshot.readInts(buf);
+        int[] targets = GraphSnapshot.readInts(buf);
+        double[] lengths = GraphSnapshot.readDoubles(buf);
+        String[] wayNameTable = new String[buf.getInt()];
+        for (int i = 0; i < wayNameTable.length; i++) {
+            wayNameTable[i] = GraphSnapshot.readString(buf);
+        }
+        int[] wayOffsets = GraphSnapshot.readInts(buf);
+        int[] wayRefs = GraphSnapshot.readInts(buf);
+        int n = ids.length;
+        if (lons.length != n || lats.length != n || offsets.length != n + 1
+                || wayOffsets.length != n + 1 || offsets[n] != targets.length
+                || targets.length != lengths.length || wayOffsets[n] != wayRefs.length) {
+            throw new IllegalArgumentException("Inconsistent graph array lengths");
+        }
+        return new CompactGraph(ids, lons, lats, offsets, targets, lengths, wayNameTable,
+                wayOffsets, wayRefs);
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the number of directed edges; every road segment is stored twice. */
+    int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the dense index of an OSM id.
+     *
+     * @param id The OSM id of the vertex.
+     * @return Its index, or -1 if the vertex is not in the graph.
+     */
+    int indexOf(long id) {
+        int v = Arrays.binarySearch(ids, id);
+        return v < 0 ? -1 : v;
+    }
+
+    /**
+     * Like {@link #indexOf(long)}, but rejects unknown vertices.
+     *
+     * @throws IllegalArgumentException If the vertex is not in the graph.
+     */
+    int checkedIndexOf(long id) {
+        int v = indexOf(id);
+        if (v < 0) {
+            throw new IllegalArgumentException("Vertex " + id + " is not in the graph");
+        }
+        return v;
+    }
+
+    long idAt(int v) {
+        return ids[v];
+    }
+
+    double lonAt(int v) {
+        return lons[v];
+    }
+
+    double latAt(int v) {
+        return lats[v];
+    }
+
+    /** Returns the first edge slot of v. */
+    int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    /** Returns one past the last edge slot of v. */
+    int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    /** Returns the dense index of the vertex edge e points to. */
+    int target(int e) {
+        return targets[e];
+    }
+
+    /** Returns the length of edge e in miles. */
+    double length(int e) {
+        return lengths[e];
+    }
+
+    /** Builds a spatial index over the vertices; its point indices are dense indices. */
+    KDTree spatialIndex() {
+        return new KDTree(lons, lats);
+    }
+
+    /** Restores a spatial index from the layout of an earlier {@link #spatialIndex()}. */
+    KDTree spatialIndex(int[] permutation) {
+        return new KDTree(lons, lats, permutation);
+    }
+
+    /** Returns an iterable of all vertex ids, in ascending order. */
+    Iterable<Long> vertices() {
+        return new AbstractList<Long>() {
+            @Override
+            public Long get(int v) {
+                return ids[v];
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    /** Returns the ids of all vertices adjacent to v. */
+    Iterable<Long> adjacent(long v) {
+        int idx = checkedIndexOf(v);
+        final int from = offsets[idx];
+        final int to = offsets[idx + 1];
+        return () -> new Iterator<Long>() {
+            private int e = from;
+
+            @Override
+            public boolean hasNext() {
+                return e < to;
+            }
+
+            @Override
+            public Long next() {
+                if (e >= to) {
+                    throw new NoSuchElementException();
+                }
+                return ids[targets[e++]];
+            }
+        };
+    }
+
+    double lon(long v) {
+        return lons[checkedIndexOf(v)];
+    }
+
+    double lat(long v) {
+        return lats[checkedIndexOf(v)];
+    }
+
+    /** Returns the names of the ways passing through v, in the order they were added. */
+    List<String> wayNames(long v) {
+        int idx = checkedIndexOf(v);
+        int from = wayOffsets[idx];
+        int to = wayOffsets[idx + 1];
+        if (from == to) {
+            return Collections.emptyList();
+        }
+        String[] names = new String[to - from];
+        for (int r = from; r < to; r++) {
+            names[r - from] = wayRefs[r] < 0 ? null : wayNameTable[wayRefs[r]];
+        }
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Estimates the retained heap size of this graph in bytes, assuming a 64-bit JVM with
+     * compressed oops (12 byte object headers, 16 byte array headers, 8 byte alignment).
+     * Way name strings are shared with the parser and are not counted.
+     */
+    long footprintBytes() {
+        return arrayBytes(ids.length, 8) + arrayBytes(lons.length, 8)
+                + arrayBytes(lats.length, 8) + arrayBytes(offsets.length, 4)
+                + arrayBytes(targets.length, 4) + arrayBytes(lengths.length, 8)
+                + arrayBytes(wayNameTable.length, 4) + arrayBytes(wayOffsets.length, 4)
+                + arrayBytes(wayRefs.length, 4);
+    }
+
+    /** Size of a primitive or reference array, including header and padding. */
+    static long arrayBytes(int length, int elementBytes) {
+        return align(16 + (long) length * elementBytes);
+    }
+
+    /** Rounds an object size up to the JVM's 8 byte alignment. */
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
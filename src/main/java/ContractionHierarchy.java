@@ -0,0 +1,377 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over the compact road graph, for fast long-distance queries.
+ *
+ * Preprocessing contracts the vertices one at a time in order of increasing importance.
+ * Contracting v removes it from the remaining graph and adds a shortcut u-w for every pair of
+ * remaining neighbors whose shortest connection runs through v; a bounded witness search
+ * decides whether some other path is at least as short. Importance is the edge difference
+ * (shortcuts added minus edges removed) plus the number of already contracted neighbors,
+ * updated lazily as the graph shrinks.
+ *
+ * The result is stored as an upward graph in CSR form: each vertex keeps only the edges and
+ * shortcuts leading to higher ranked vertices. Since all roads are two-way, one upward graph
+ * serves both directions of the query, which is a bidirectional Dijkstra search that only
+ * climbs (see CHSearch). Every shortcut remembers the vertex it bypasses, so found paths can
+ * be unpacked back into original vertices. The hierarchy is saved in the graph snapshot, so
+ * the preprocessing runs once per source file rather than at every start.
+ */
+public class ContractionHierarchy {
+    /** Settle limit of witness searches while estimating a vertex's importance. */
+    private static final int SIMULATION_SETTLE_LIMIT = 30;
+    /** Settle limit of witness searches during the actual contraction. */
+    private static final int CONTRACTION_SETTLE_LIMIT = 500;
+
+    private final CompactGraph g;
+    /** Contraction order of every vertex; higher ranks were contracted later. */
+    private final int[] rank;
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    /** The bypassed vertex of a shortcut, or -1 for an original road segment. */
+    private final int[] upMiddles;
+    private final int shortcuts;
+
+    private ContractionHierarchy(CompactGraph g, int[] rank, int[] upOffsets, int[] upTargets,
+                                 double[] upWeights, int[] upMiddles, int shortcuts) {
+        this.g = g;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.shortcuts = shortcuts;
+    }
+
+    /**
+     * Runs the preprocessing over a graph.
+     * @param g The graph to contract.
+     * @return The contraction hierarchy of g.
+     */
+    public static ContractionHierarchy build(CompactGraph g) {
+        return new Builder(g).build();
+    }
+
+    /** Returns the number of shortcut edges added during preprocessing. */
+    public int shortcutCount() {
+        return shortcuts;
+    }
+
+    /** Writes the hierarchy for a snapshot: rank, upward graph and shortcut count. */
+    void write(DataOutputStream out) throws IOException {
+        GraphSnapshot.writeInts(out, rank);
+        GraphSnapshot.writeInts(out, upOffsets);
+        GraphSnapshot.writeInts(out, upTargets);
+        GraphSnapshot.writeDoubles(out, upWeights);
+        GraphSnapshot.writeInts(out, upMiddles);
+        out.writeInt(shortcuts);
+    }
+
+    /**
+     * Reads a hierarchy written by {@link #write}.
+     *
+     * @param g The graph the hierarchy was built from.
+     * @throws IllegalArgumentException If the arrays do not describe a hierarchy of g.
+     */
+    static ContractionHierarchy read(CompactGraph g, ByteBuffer buf) {
+        int[] rank = GraphSnapshot.readInts(buf);
+        int[] upOffsets = GraphSnapshot.readInts(buf);
+        int[] upTargets = GraphSnapshot.readInts(buf);
+        double[] upWeights = GraphSnapshot.readDoubles(buf);
+        int[] upMiddles = GraphSnapshot.readInts(buf);
+        int shortcuts = buf.getInt();
+        int n = g.size();
+        if (rank.length != n || upOffsets.length != n + 1 || upOffsets[n] != upTargets.length
+                || upTargets.length != upWeights.length
+                || upTargets.length != upMiddles.length) {
+            throw new IllegalArgumentException("Inconsistent hierarchy array lengths");
+        }
+        return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights, upMiddles,
+                shortcuts);
+    }
+
+    /** Returns the graph this hierarchy was built from. */
+    CompactGraph graph() {
+        return g;
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return rank.length;
+    }
+
+    /** Returns the first upward slot of v. */
+    int upBegin(int v) {
+        return upOffsets[v];
+    }
+
+    /** Returns the slot after the last upward slot of v. */
+    int upEnd(int v) {
+        return upOffsets[v + 1];
+    }
+
+    /** Returns the higher ranked endpoint of upward slot e. */
+    int upTarget(int e) {
+        return upTargets[e];
+    }
+
+    double upWeight(int e) {
+        return upWeights[e];
+    }
+
+    /** Returns the bypassed vertex of upward slot e, or -1 for an original road segment. */
+    int upMiddle(int e) {
+        return upMiddles[e];
+    }
+
+    /** Returns the lightest upward slot of v leading to w. */
+    int findUp(int v, int w) {
+        int found = -1;
+        for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+            if (upTargets[e] == w && (found < 0 || upWeights[e] < upWeights[found])) {
+                found = e;
+            }
+        }
+        return found;
+    }
+
+    /** Mutable state of the preprocessing. */
+    private static class Builder {
+        private final CompactGraph g;
+        private final int n;
+        /** Remaining graph: per vertex, parallel growable arrays of neighbors. */
+        private final int[][] adjTargets;
+        private final double[][] adjWeights;
+        private final int[][] adjMiddles;
+        private final int[] degree;
+        private final boolean[] contracted;
+        private final int[] deletedNeighbors;
+        private int shortcuts;
+
+        /* Witness search state, reset through generation stamps. */
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private int generation;
+        private final MinHeap witnessHeap = new MinHeap();
+
+        Builder(CompactGraph g) {
+            this.g = g;
+            this.n = g.size();
+            adjTargets = new int[n][];
+            adjWeights = new double[n][];
+            adjMiddles = new int[n][];
+            degree = new int[n];
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            for (int v = 0; v < n; v++) {
+                int capacity = Math.max(2, g.endEdge(v) - g.firstEdge(v));
+                adjTargets[v] = new int[capacity];
+                adjWeights[v] = new double[capacity];
+                adjMiddles[v] = new int[capacity];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                    int w = g.target(e);
+                    if (w != v) {
+                        setEdge(v, w, g.length(e), -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            MinHeap queue = new MinHeap();
+            for (int v = 0; v < n; v++) {
+                queue.push(v, priority(v));
+            }
+            int[] rank = new int[n];
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pop();
+                /* Lazy update: re-evaluate and defer v if it is no longer the cheapest. */
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekKey()) {
+                    queue.push(v, p);
+                    continue;
+                }
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = next++;
+                /* v keeps its edges, which are exactly its upward edges; its neighbors drop
+                 * theirs to v so later searches never look at contracted vertices. */
+                for (int i = 0; i < degree[v]; i++) {
+                    int u = adjTargets[v][i];
+                    deletedNeighbors[u]++;
+                    removeEdge(u, v);
+                }
+            }
+            return upwardGraph(rank);
+        }
+
+        private double priority(int v) {
+            int added = contract(v, true);
+            int removed = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                if (!contracted[adjTargets[v][i]]) {
+                    removed++;
+                }
+            }
+            return added - removed + deletedNeighbors[v];
+        }
+
+        /**
+         * Adds the shortcuts needed to contract v, or only counts them.
+         * @return The number of shortcuts.
+         */
+        private int contract(int v, boolean simulate) {
+            int count = 0;
+            int limit = simulate ? SIMULATION_SETTLE_LIMIT : CONTRACTION_SETTLE_LIMIT;
+            double maxOut = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                if (!contracted[adjTargets[v][i]]) {
+                    maxOut = Math.max(maxOut, adjWeights[v][i]);
+                }
+            }
+            for (int i = 0; i < degree[v]; i++) {
+                int u = adjTargets[v][i];
+                if (contracted[u]) {
+                    continue;
+                }
+                double wu = adjWeights[v][i];
+                witnessSearch(u, v, wu + maxOut, limit);
+                for (int j = i + 1; j < degree[v]; j++) {
+                    int w = adjTargets[v][j];
+                    if (contracted[w]) {
+                        continue;
+                    }
+                    double via = wu + adjWeights[v][j];
+                    double witness = witnessStamp[w] == generation
+                            ? witnessDist[w] : Double.POSITIVE_INFINITY;
+                    if (witness > via) {
+                        count++;
+                        if (!simulate) {
+                            setEdge(u, w, via, v);
+                            setEdge(w, u, via, v);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Dijkstra from u over the remaining graph without v, stopping at maxDist or after
+         * limit settled vertices. Results stay in witnessDist for the current generation.
+         */
+        private void witnessSearch(int u, int v, double maxDist, int limit) {
+            generation++;
+            witnessHeap.clear();
+            witnessDist[u] = 0;
+            witnessStamp[u] = generation;
+            witnessHeap.push(u, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && settled < limit) {
+                double d = witnessHeap.peekKey();
+                int x = witnessHeap.pop();
+                if (d > witnessDist[x]) {
+                    continue;
+                }
+                settled++;
+                for (int i = 0; i < degree[x]; i++) {
+                    int y = adjTargets[x][i];
+                    if (y == v || contracted[y]) {
+                        continue;
+                    }
+                    double dy = d + adjWeights[x][i];
+                    if (dy > maxDist) {
+                        continue;
+                    }
+                    if (witnessStamp[y] != generation || dy < witnessDist[y]) {
+                        witnessStamp[y] = generation;
+                        witnessDist[y] = dy;
+                        witnessHeap.push(y, dy);
+                    }
+                }
+            }
+        }
+
+        /** Adds edge v-w, or lowers the weight of an existing one. */
+        private void setEdge(int v, int w, double weight, int middle) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adjTargets[v][i] == w) {
+                    if (weight < adjWeights[v][i]) {
+                        /* An original edge replaced by a shorter shortcut. */
+                        if (adjMiddles[v][i] < 0 && middle >= 0 && v < w) {
+                            shortcuts++;
+                        }
+                        adjWeights[v][i] = weight;
+                        adjMiddles[v][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[v] == adjTargets[v].length) {
+                int capacity = adjTargets[v].length * 2;
+                adjTargets[v] = Arrays.copyOf(adjTargets[v], capacity);
+                adjWeights[v] = Arrays.copyOf(adjWeights[v], capacity);
+                adjMiddles[v] = Arrays.copyOf(adjMiddles[v], capacity);
+            }
+            adjTargets[v][degree[v]] = w;
+            adjWeights[v][degree[v]] = weight;
+            adjMiddles[v][degree[v]] = middle;
+            degree[v]++;
+            if (middle >= 0 && v < w) {
+                shortcuts++;
+            }
+        }
+
+        /** Removes edge v-w from the adjacency of v. */
+        private void removeEdge(int v, int w) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adjTargets[v][i] == w) {
+                    int last = --degree[v];
+                    adjTargets[v][i] = adjTargets[v][last];
+                    adjWeights[v][i] = adjWeights[v][last];
+                    adjMiddles[v][i] = adjMiddles[v][last];
+                    return;
+                }
+            }
+        }
+
+        /** Keeps, for every vertex, the edges to higher ranked vertices. */
+        private ContractionHierarchy upwardGraph(int[] rank) {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                int up = 0;
+                for (int i = 0; i < degree[v]; i++) {
+                    if (rank[adjTargets[v][i]] > rank[v]) {
+                        up++;
+                    }
+                }
+                offsets[v + 1] = offsets[v] + up;
+            }
+            int[] targets = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            int[] middles = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                int e = offsets[v];
+                for (int i = 0; i < degree[v]; i++) {
+                    if (rank[adjTargets[v][i]] > rank[v]) {
+                        targets[e] = adjTargets[v][i];
+                        weights[e] = adjWeights[v][i];
+                        middles[e] = adjMiddles[v][i];
+                        e++;
+                    }
+                }
+            }
+            return new ContractionHierarchy(g, rank, offsets, targets, weights, middles,
+                    shortcuts);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class provides a main method that renders the rasters of the queries in
+ * raster_params.txt and encodes them with each raster encoder, printing the median encode
+ * time and the total output size per encoder.
+ * Usage: EncoderBenchmark [params file] [encoder specs, comma-separated]
+ */
+public class EncoderBenchmark {
+    private static final String PARAMS_FILE = "raster_params.txt";
+    private static final String SPECS = "imageio,png:1:none,png:1:up,png:1:sub,png:1:paeth,"
+            + "png:1:adaptive,png:3:up,png:6:up,png:6:adaptive,png:9:up,png-parallel:1:up,"
+            + "png-parallel:6:up,jpeg:0.85";
+    /** Untimed encodes of every raster, so every encoder runs JIT-compiled code. */
+    private static final int WARMUP_ROUNDS = 3;
+    /** Timed encodes of every raster; the median is reported. */
+    private static final int TIMED_ROUNDS = 7;
+
+    public static void main(String[] args) throws IOException {
+        String paramsPath = args.length > 0 ? args[0] : PARAMS_FILE;
+        String specs = args.length > 1 ? args[1] : SPECS;
+        MapServer.initialize();
+        List<BufferedImage> rasters = new ArrayList<>();
+        long pixels = 0;
+        try {
+            for (Map<String, Double> q : RasterBenchmark.readQueries(paramsPath)) {
+                BufferedImage img = MapServer.renderRaster(q);
+                if (img != null) {
+                    rasters.add(img);
+                    pixels += (long) img.getWidth() * img.getHeight();
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("Could not read " + paramsPath, e);
+        }
+        System.out.println(String.format("%d rasters, %.1f megapixels", rasters.size(),
+                pixels / 1e6));
+        System.out.println(String.format("%-22s%12s%14s%10s", "encoder", "encode ms",
+                "bytes", "ratio"));
+
+        long baseline = 0;
+        for (String spec : specs.split(",")) {
+            RasterEncoder encoder = RasterEncoder.forName(spec);
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                for (BufferedImage img : rasters) {
+                    encoder.encode(img);
+                }
+            }
+            long nanos = 0;
+            long bytes = 0;
+            for (BufferedImage img : rasters) {
+                long[] samples = new long[TIMED_ROUNDS];
+                int size = 0;
+                for (int r = 0; r < TIMED_ROUNDS; r++) {
+                    long begin = System.nanoTime();
+                    size = encoder.encode(img).length;
+                    samples[r] = System.nanoTime() - begin;
+                }
+                Arrays.sort(samples);
+                nanos += samples[TIMED_ROUNDS / 2];
+                bytes += size;
+            }
+            if (baseline == 0) {
+                baseline = bytes;
+            }
+            System.out.println(String.format("%-22s%12.1f%14d%10.2f", encoder.spec(),
+                    nanos / 1e6, bytes, (double) bytes / baseline));
+        }
+    }
+}
@@ -3,10 +3,15 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -53,45 +58,230 @@ public class GraphDB {
 //        }
 //    }
 
-    /* All connected nodes*/
-    public static Map<Long, Node> nodes = new HashMap<>();
-    /* All nodes*/
-    public static Map<Long, Node> locations = new HashMap<>();
+    /*
+     * All state is owned by the instance and only written while the constructor runs, so a
+     * fully constructed GraphDB can be shared by any number of request threads, and several
+     * graphs can be loaded side by side in one JVM.
+     */
+
+    /* All connected nodes; only filled while parsing XML.*/
+    private final Map<Long, Node> nodes = new HashMap<>();
+    /* All named nodes, connected or not.*/
+    private final Map<Long, Node> locations = new HashMap<>();
     /* Location names and their corresponding list of ids.*/
-    public static Map<String, ArrayList<Long>> names = new HashMap<>();
-    /* For autocomplete purposes*/
-    public final TrieST trie = new TrieST();
+    private final Map<String, ArrayList<Long>> names = new HashMap<>();
+    /* For autocomplete purposes; built once all names are known.*/
+    private final PrefixIndex prefixIndex;
+    /* For searching by any words of a name; built with the prefix index.*/
+    private final TokenIndex tokenIndex;
+    /* Immutable CSR copy of the cleaned graph; serves all read queries once built.*/
+    private final CompactGraph compact;
+    /* Spatial index over the compact graph's vertices, for closest-vertex queries.*/
+    private final KDTree index;
+    /* Spatial index over the locations, numbered as in the token index.*/
+    private final KDTree locationIndex;
+    /* Contraction hierarchy over the compact graph, from the snapshot or built on first use.*/
+    private volatile ContractionHierarchy hierarchy;
+    /* Landmark distance tables for the ALT heuristic, built on first use.*/
+    private volatile Landmarks landmarks;
+    /* Separate locks, so that ALT queries need not wait for a hierarchy being built.*/
+    private final Object hierarchyLock = new Object();
+    private final Object landmarksLock = new Object();
+    /* A* buffers over the compact graph, one per routing thread, reused across queries.*/
+    private final ThreadLocal<AStarSearch> searches;
+    /* Bidirectional A* buffers, likewise one per routing thread.*/
+    private final ThreadLocal<BidirectionalSearch> bidirectionalSearches;
+    /* Contraction hierarchy query buffers, likewise one per routing thread.*/
+    private final ThreadLocal<CHSearch> chSearches;
+    /* Whether the whole source was read; a graph built from part of a file is never saved.*/
+    private final boolean complete;
+
+    /**
+     * Builds the graph of an OSM file with the streaming, parallel {@link OsmIngest} reader.
+     *
+     * @param dbPath Path to the XML file to be parsed; it may be gzip compressed (.gz).
+     */
+    public GraphDB(String dbPath) {
+        this(dbPath, false);
+    }
 
     /**
      * Example constructor shows how to create and start an XML parser.
-     * You do not need to modify this constructor, but you're welcome to do so.
+     * With sax set, the file is parsed by the original single-threaded GraphBuildingHandler,
+     * which is kept as the reference the streaming reader is tested against.
      *
      * @param dbPath Path to the XML file to be parsed.
+     * @param sax    Whether to use the SAX handler instead of OsmIngest.
      */
-    public GraphDB(String dbPath) {
+    GraphDB(String dbPath, boolean sax) {
+        this(dbPath, sax, OsmIngest.BATCH_SIZE);
+    }
+
+    /**
+     * Builds the graph of an OSM file with OsmIngest reading batches of batchSize elements,
+     * so that tests can cover batch boundaries with small files.
+     */
+    GraphDB(String dbPath, int batchSize) {
+        this(dbPath, false, batchSize);
+    }
+
+    private GraphDB(String dbPath, boolean sax, int batchSize) {
+        boolean read = false;
         try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
-
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
-            saxParser.parse(inputStream, gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+            if (sax) {
+                File inputFile = new File(dbPath);
+                InputStream inputStream = new FileInputStream(inputFile);
+                if (dbPath.endsWith(".gz")) {
+                    inputStream = new GZIPInputStream(inputStream);
+                }
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                SAXParser saxParser = factory.newSAXParser();
+                GraphBuildingHandler gbh = new GraphBuildingHandler(this);
+                saxParser.parse(inputStream, gbh);
+            } else {
+                OsmIngest.read(dbPath, this, batchSize);
+            }
+            read = true;
+        } catch (ParserConfigurationException | SAXException | XMLStreamException
+                | IOException e) {
             e.printStackTrace();
         }
+        complete = read;
         clean();
+        prefixIndex = new PrefixIndex(names, id -> locations.get(id).name);
+        tokenIndex = new TokenIndex(names);
+        locationIndex = locationIndex();
+        compact = CompactGraph.from(nodes);
+        index = compact.spatialIndex();
+        searches = ThreadLocal.withInitial(() -> new AStarSearch(compact));
+        bidirectionalSearches = ThreadLocal.withInitial(() -> new BidirectionalSearch(compact));
+        chSearches = ThreadLocal.withInitial(() -> new CHSearch(contractionHierarchy()));
+    }
+
+    /**
+     * Restores a graph from the payload of a snapshot written by {@link #writeSnapshot}.
+     * The node map is left empty; everything else is as after the XML constructor, except
+     * that the contraction hierarchy is ready at once.
+     */
+    private GraphDB(ByteBuffer buf) {
+        complete = true;
+        compact = CompactGraph.read(buf);
+        index = compact.spatialIndex(GraphSnapshot.readInts(buf));
+        int locationCount = buf.getInt();
+        for (int i = 0; i < locationCount; i++) {
+            Node node = new Node(buf.getLong(), buf.getDouble(), buf.getDouble());
+            node.name = GraphSnapshot.readString(buf);
+            locations.put(node.id, node);
+        }
+        int nameCount = buf.getInt();
+        for (int i = 0; i < nameCount; i++) {
+            String cleanName = GraphSnapshot.readString(buf);
+            long[] ids = GraphSnapshot.readLongs(buf);
+            ArrayList<Long> list = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                list.add(id);
+            }
+            names.put(cleanName, list);
+        }
+        prefixIndex = new PrefixIndex(names, id -> locations.get(id).name);
+        tokenIndex = new TokenIndex(names);
+        locationIndex = locationIndex();
+        hierarchy = ContractionHierarchy.read(compact, buf);
+        searches = ThreadLocal.withInitial(() -> new AStarSearch(compact));
+        bidirectionalSearches = ThreadLocal.withInitial(() -> new BidirectionalSearch(compact));
+        chSearches = ThreadLocal.withInitial(() -> new CHSearch(contractionHierarchy()));
+    }
+
+    /* Builds the spatial index over the locations; point i is location tokenIndex.id(i).*/
+    private KDTree locationIndex() {
+        double[] lons = new double[tokenIndex.locations()];
+        double[] lats = new double[lons.length];
+        for (int i = 0; i < lons.length; i++) {
+            Node location = locations.get(tokenIndex.id(i));
+            lons[i] = location.lon;
+            lats[i] = location.lat;
+        }
+        return new KDTree(lons, lats);
+    }
+
+    /**
+     * Loads the graph of an .osm.xml file, from its snapshot if there is an up to date one.
+     * Otherwise the XML is parsed, the contraction hierarchy is built, and a new snapshot of
+     * both is written next to it for the next start.
+     *
+     * @param dbPath Path to the XML file.
+     * @return The graph.
+     */
+    public static GraphDB load(String dbPath) {
+        File source = new File(dbPath);
+        File snapshot = GraphSnapshot.fileFor(dbPath);
+        try {
+            GraphDB g = GraphSnapshot.read(source, snapshot);
+            if (g != null) {
+                return g;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        GraphDB g = new GraphDB(dbPath);
+        if (!g.complete) {
+            System.out.println("Not writing graph snapshot " + snapshot + ": " + dbPath
+                    + " could not be read to the end");
+        } else if (source.isFile()) {
+            g.contractionHierarchy();
+            try {
+                GraphSnapshot.write(g, source, snapshot);
+            } catch (IOException e) {
+                System.out.println("Could not write graph snapshot " + snapshot + ": " + e);
+            }
+        }
+        return g;
+    }
+
+    /* Whether the graph holds all of its source, rather than what was read before an error.*/
+    boolean isComplete() {
+        return complete;
+    }
+
+    static GraphDB fromSnapshot(ByteBuffer buf) {
+        return new GraphDB(buf);
     }
 
     /**
-     * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
+     * Writes the snapshot payload: compact graph, spatial index layout, locations, names and
+     * the contraction hierarchy, which is built first if need be.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        compact.write(out);
+        GraphSnapshot.writeInts(out, index.permutation());
+        out.writeInt(locations.size());
+        for (Node node : locations.values()) {
+            out.writeLong(node.id);
+            out.writeDouble(node.lon);
+            out.writeDouble(node.lat);
+            GraphSnapshot.writeString(out, node.name);
+        }
+        out.writeInt(names.size());
+        for (Map.Entry<String, ArrayList<Long>> entry : names.entrySet()) {
+            GraphSnapshot.writeString(out, entry.getKey());
+            long[] ids = new long[entry.getValue().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = entry.getValue().get(i);
+            }
+            GraphSnapshot.writeLongs(out, ids);
+        }
+        contractionHierarchy().write(out);
+    }
+
+    /**
+     * Helper to process strings into their "cleaned" form, ignoring punctuation, capitalization
+     * and accents. See {@link NameNormalizer}.
      *
      * @param s Input string.
      * @return Cleaned string.
      */
     static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+        return NameNormalizer.clean(s);
     }
 
     /**
@@ -116,7 +306,7 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        return nodes.keySet();
+        return compact.vertices();
     }
 
     /**
@@ -126,8 +316,7 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        checkVertex(v);
-        return nodes.get(v).adj;
+        return compact.adjacent(v);
     }
 
     /**
@@ -139,7 +328,7 @@ public class GraphDB {
      * @param w The id of the second vertex.
      * @return The great-circle distance between the two locations from the graph.
      */
-    static double distance(long v, long w) {
+    double distance(long v, long w) {
         return distance(lon(v), lat(v), lon(w), lat(w));
     }
 
@@ -191,16 +380,40 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        double shortestDist = Double.MAX_VALUE;
-        long closestID = -1;
-        for (long id : nodes.keySet()) {
-            double distance = distance(nodes.get(id).lon, nodes.get(id).lat, lon, lat);
-            if (distance < shortestDist) {
-                shortestDist = distance;
-                closestID = id;
-            }
+        int v = index.nearest(lon, lat);
+        return v < 0 ? -1 : compact.idAt(v);
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k   The number of vertices to return.
+     * @return The ids of up to k vertices, nearest first.
+     */
+    List<Long> closest(double lon, double lat, int k) {
+        return toIds(index.nearest(lon, lat, k));
+    }
+
+    /**
+     * Returns all vertices within a great-circle distance of the given longitude and latitude.
+     *
+     * @param lon   The target longitude.
+     * @param lat   The target latitude.
+     * @param miles The search radius in miles.
+     * @return The ids of the vertices in range, nearest first.
+     */
+    List<Long> withinRadius(double lon, double lat, double miles) {
+        return toIds(index.withinRadius(lon, lat, miles));
+    }
+
+    private List<Long> toIds(int[] vertices) {
+        List<Long> ids = new ArrayList<>(vertices.length);
+        for (int v : vertices) {
+            ids.add(compact.idAt(v));
         }
-        return closestID;
+        return ids;
     }
 
     /**
@@ -209,9 +422,8 @@ public class GraphDB {
      * @param v The id of the vertex.
      * @return The longitude of the vertex.
      */
-    static double lon(long v) {
-        checkVertex(v);
-        return nodes.get(v).lon;
+    double lon(long v) {
+        return compact.lon(v);
     }
 
     /**
@@ -220,15 +432,12 @@ public class GraphDB {
      * @param v The id of the vertex.
      * @return The latitude of the vertex.
      */
-    static double lat(long v) {
-        checkVertex(v);
-        return nodes.get(v).lat;
+    double lat(long v) {
+        return compact.lat(v);
     }
 
     void addNode(long id, double lon, double lat) {
-        Node node = new Node(id, lon, lat);
-        nodes.put(id, node);
-        locations.put(id, node);
+        nodes.put(id, new Node(id, lon, lat));
     }
 
     void addEdge(long v, long w) {
@@ -250,26 +459,35 @@ public class GraphDB {
 
     }
 
+    /* Connect all edges in a way given as an array of node ids.*/
+    void addWay(long[] way, String wayName) {
+        nodes.get(way[0]).ways.add(wayName);
+        for (int i = 1; i < way.length; i++) {
+            nodes.get(way[i]).ways.add(wayName);
+            addEdge(way[i - 1], way[i]);
+        }
+    }
+
     /* Give names to nodes.*/
     void addName(long id, double lon, double lat, String locName) {
-        nodes.get(id).name = locName;
-        locations.get(id).name = locName;
+        Node node = nodes.get(id);
+        node.name = locName;
+        locations.put(id, node);
         String cleanName = cleanString(locName);
         if (!names.containsKey(cleanName)) {
             names.put(cleanName, new ArrayList<>());
         }
         names.get(cleanName).add(id);
-        trie.put(cleanName, id);
     }
 
     /* Get the name of ways*/
     List<String> getWayNames(long v) {
-        checkVertex(v);
-        List<String> wayNames = new LinkedList<>();
-        for (String way : nodes.get(v).ways) {
-            wayNames.add(way);
-        }
-        return wayNames;
+        return compact.wayNames(v);
+    }
+
+    /* The location with the given id, as used for search results.*/
+    Node location(long id) {
+        return locations.get(id);
     }
 
     /* For searching purposes.*/
@@ -277,19 +495,158 @@ public class GraphDB {
         return names.get(cleanString(name));
     }
 
-    static void checkVertex(long v) {
+    void checkVertex(long v) {
         if (!nodes.containsKey(v)) {
             throw new IllegalArgumentException("Vertex " + v + " is not in the graph");
         }
     }
 
-    List<String> keysWithPrefixOf(String prefix) {
-        List<String> locNames = new ArrayList<>();
-        for (Object key : trie.keysWithPrefix(cleanString(prefix))) {
-            for (Long id : names.get(key)) {
-                locNames.add(locations.get(id).name);
+    /* The compact graph backing the read API, for callers that work on dense indices.*/
+    CompactGraph compact() {
+        return compact;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph, running the preprocessing the first
+     * time it is needed. Safe to call from several threads; the work is done once.
+     */
+    ContractionHierarchy contractionHierarchy() {
+        ContractionHierarchy ch = hierarchy;
+        if (ch == null) {
+            synchronized (hierarchyLock) {
+                ch = hierarchy;
+                if (ch == null) {
+                    ch = ContractionHierarchy.build(compact);
+                    hierarchy = ch;
+                }
             }
         }
-        return locNames;
+        return ch;
+    }
+
+    /** Returns the calling thread's A* buffers over this graph. */
+    AStarSearch search() {
+        return searches.get();
+    }
+
+    /** Returns the calling thread's bidirectional A* buffers over this graph. */
+    BidirectionalSearch bidirectionalSearch() {
+        return bidirectionalSearches.get();
+    }
+
+    /**
+     * Returns the calling thread's query buffers over the contraction hierarchy, waiting for
+     * the preprocessing if the hierarchy is not there yet.
+     */
+    CHSearch chSearch() {
+        return chSearches.get();
+    }
+
+    /**
+     * Returns the landmark tables of this graph, selecting Landmarks.DEFAULT_COUNT landmarks
+     * the first time they are needed. Safe to call from several threads.
+     */
+    Landmarks landmarks() {
+        Landmarks lm = landmarks;
+        if (lm == null) {
+            synchronized (landmarksLock) {
+                lm = landmarks;
+                if (lm == null) {
+                    lm = Landmarks.select(compact, Landmarks.DEFAULT_COUNT);
+                    landmarks = lm;
+                }
+            }
+        }
+        return lm;
+    }
+
+    /**
+     * Replaces the landmark tables with a fresh selection of the given size.
+     * @param count The number of landmarks.
+     */
+    void selectLandmarks(int count) {
+        synchronized (landmarksLock) {
+            landmarks = Landmarks.select(compact, count);
+        }
+    }
+
+    /**
+     * Compares the estimated heap footprint of the node-map layout built while parsing with
+     * the compact CSR layout that serves queries. Estimates assume a 64-bit JVM with
+     * compressed oops; location names and way name strings are excluded from both.
+     * A graph loaded from a snapshot never had a node map, so only the CSR size is reported.
+     *
+     * @return A human readable, multi-line report.
+     */
+    String footprintReport() {
+        long csrBytes = compact.footprintBytes();
+        if (nodes.isEmpty() && compact.size() > 0) {
+            return String.format("Graph layout footprint (estimated, loaded from snapshot):%n"
+                            + "  vertices: %d, directed edges: %d%n"
+                            + "  CSR layout:      %,d bytes (%.1f bytes/vertex)",
+                    compact.size(), compact.edgeCount(),
+                    csrBytes, (double) csrBytes / compact.size());
+        }
+        long mapBytes = CompactGraph.align(48)
+                + CompactGraph.arrayBytes(Integer.highestOneBit(nodes.size() * 4 / 3 + 1) * 2, 4);
+        for (Node node : nodes.values()) {
+            /* HashMap entry, boxed key, Node (with outer reference) and its two lists. */
+            mapBytes += 32 + 16 + 56 + 24 + 32;
+            if (!node.ways.isEmpty()) {
+                mapBytes += CompactGraph.arrayBytes(Math.max(10, node.ways.size()), 4);
+            }
+            /* One LinkedList entry and one boxed Long per neighbor. */
+            mapBytes += node.adj.size() * (24L + 16L);
+        }
+        return String.format("Graph layout footprint (estimated):%n"
+                        + "  vertices: %d, directed edges: %d%n"
+                        + "  node map layout: %,d bytes (%.1f bytes/vertex)%n"
+                        + "  CSR layout:      %,d bytes (%.1f bytes/vertex)%n"
+                        + "  ratio: %.1fx",
+                compact.size(), compact.edgeCount(),
+                mapBytes, (double) mapBytes / Math.max(1, compact.size()),
+                csrBytes, (double) csrBytes / Math.max(1, compact.size()),
+                (double) mapBytes / Math.max(1, csrBytes));
+    }
+
+    /* The full names of all locations whose cleaned name starts with the cleaned prefix.*/
+    List<String> keysWithPrefixOf(String prefix) {
+        return prefixIndex.namesWithPrefix(cleanString(prefix), Integer.MAX_VALUE);
+    }
+
+    /* The k most common location names starting with the cleaned prefix, most common first.*/
+    List<String> topKeysWithPrefixOf(String prefix, int k) {
+        return prefixIndex.topWithPrefix(cleanString(prefix), k);
+    }
+
+    /* The ids of the locations whose cleaned name has all words of the query, the last as a
+     * prefix, in cleaned name order, at most limit of them.*/
+    long[] locationsWithWords(String query, int limit) {
+        return tokenIndex.search(cleanString(query), limit);
+    }
+
+    /* The ids of the locations with the cleaned name, closest to (lon, lat) first, at most
+     * limit of them.*/
+    long[] nearestLocations(String name, double lon, double lat, int limit) {
+        return nearest(tokenIndex.named(cleanString(name)), lon, lat, limit);
+    }
+
+    /* As locationsWithWords(query, limit), but closest to (lon, lat) first.*/
+    long[] nearestLocationsWithWords(String query, double lon, double lat, int limit) {
+        return nearest(tokenIndex.matches(cleanString(query)), lon, lat, limit);
+    }
+
+    private long[] nearest(int[] candidates, double lon, double lat, int limit) {
+        int[] closest = locationIndex.nearest(lon, lat, limit, candidates);
+        long[] ids = new long[closest.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tokenIndex.id(closest[i]);
+        }
+        return ids;
+    }
+
+    /* The k location names closest to the cleaned name, within maxDistance edits.*/
+    List<String> fuzzyKeysOf(String name, int maxDistance, int k) {
+        return prefixIndex.fuzzyMatches(cleanString(name), maxDistance, k);
     }
 }
@@ -1,5 +1,10 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.function.Supplier;
 
 /**
  * This class provides a main method for experimenting with GraphDB construction.
@@ -10,7 +15,15 @@ public class GraphDBLauncher {
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
 
     public static void main(String[] args) {
-        GraphDB g = new GraphDB(OSM_DB_PATH);
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH;
+        reportIngest("SAX handler", path, () -> new GraphDB(path, true));
+        GraphDB g = reportIngest("streaming reader", path, () -> new GraphDB(path));
+        /* The first load writes the snapshot if there is no up to date one yet. */
+        GraphDB.load(path);
+        long begin = System.nanoTime();
+        GraphDB.load(path);
+        System.out.println(String.format("Loaded the graph through its snapshot in %.0f ms.",
+                (System.nanoTime() - begin) / 1e6));
 
         Iterable<Long> verticesIterable = g.vertices();
 
@@ -33,6 +46,34 @@ public class GraphDBLauncher {
         System.out.print("The vertex number closest to -122.258207, 37.875352 is " + v + ", which");
         System.out.println(" has longitude, latitude of: " + g.lon(v) + ", " + g.lat(v));
 
+        System.out.println(g.footprintReport());
+
         System.out.println("To get started, uncomment print statements in GraphBuildingHandler.");
     }
+
+    /**
+     * Builds a graph and prints the input throughput and the peak heap use while building.
+     * The peak is the sum of the peaks of all heap pools, so it is an upper bound.
+     */
+    private static GraphDB reportIngest(String label, String path, Supplier<GraphDB> build) {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long begin = System.nanoTime();
+        GraphDB g = build.get();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        double megabytes = new File(path).length() / 1e6;
+        System.out.println(String.format("%s: %.1f MB in %.0f ms (%.1f MB/s), peak heap %.0f MB",
+                label, megabytes, seconds * 1e3, megabytes / seconds, peak / 1e6));
+        return g;
+    }
 }
@@ -0,0 +1,206 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary image of a built GraphDB, so that a server can start without parsing the XML.
+ *
+ * The file starts with a fixed header: magic number, format version, the length and
+ * modification time of the .osm.xml file it was built from, the payload length and a CRC32
+ * of the payload. The payload holds the compact graph, the spatial index layout, the named
+ * locations, the name index and the contraction hierarchy, all big-endian. Arrays are
+ * written as their length followed by the elements; strings as their UTF-8 length (or -1
+ * for null) followed by the bytes.
+ *
+ * Snapshots are read through a memory mapping and copied into the usual heap arrays with
+ * bulk gets. A snapshot whose header does not match the current source file, or whose
+ * checksum is wrong, is ignored.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x4F534D47;
+    /**
+     * Bump whenever the payload layout or the name cleaning changes; older snapshots are then
+     * rebuilt. Version 2 keeps accented and non-Latin letters in cleaned names; version 3
+     * adds the contraction hierarchy.
+     */
+    static final int VERSION = 3;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    /** Returns the snapshot file that belongs to an .osm.xml file. */
+    static File fileFor(String dbPath) {
+        return new File(dbPath + ".snapshot");
+    }
+
+    /**
+     * Writes a snapshot of g. The file is written under a temporary name and then moved into
+     * place, so readers never see a partial snapshot.
+     *
+     * @param g      The graph, as built from source.
+     * @param source The .osm.xml file the graph was built from.
+     * @param target The snapshot file to write.
+     */
+    static void write(GraphDB g, File source, File target) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        long payloadBytes;
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_BYTES);
+            OutputStream out = Channels.newOutputStream(channel);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(out, crc), 1 << 16));
+            g.writeSnapshot(data);
+            data.flush();
+            payloadBytes = channel.position() - HEADER_BYTES;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(source.length())
+                    .putLong(source.lastModified()).putLong(payloadBytes).putLong(crc.getValue());
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a snapshot if it exists and matches the source file.
+     *
+     * @param source   The .osm.xml file the snapshot should have been built from.
+     * @param snapshot The snapshot file.
+     * @return The graph, or null if the snapshot is missing, stale or damaged.
+     */
+    static GraphDB read(File source, File snapshot) throws IOException {
+        if (!snapshot.isFile() || !source.isFile()) {
+            return null;
+        }
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return reject(snapshot, "it is truncated");
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.getInt() != MAGIC) {
+            return reject(snapshot, "it is not a graph snapshot");
+        }
+        if (buf.getInt() != VERSION) {
+            return reject(snapshot, "it has another format version");
+        }
+        if (buf.getLong() != source.length() || buf.getLong() != source.lastModified()) {
+            return reject(snapshot, "it was built from another version of " + source);
+        }
+        long payloadBytes = buf.getLong();
+        long checksum = buf.getLong();
+        if (payloadBytes != buf.remaining()) {
+            return reject(snapshot, "it is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate());
+        if (crc.getValue() != checksum) {
+            return reject(snapshot, "its checksum does not match");
+        }
+        try {
+            GraphDB g = GraphDB.fromSnapshot(buf);
+            if (buf.hasRemaining()) {
+                return reject(snapshot, "it has trailing data");
+            }
+            return g;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return reject(snapshot, "it is malformed (" + e + ")");
+        }
+    }
+
+    private static GraphDB reject(File snapshot, String reason) {
+        System.out.println("Ignoring graph snapshot " + snapshot + " because " + reason + ".");
+        return null;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long v : values) {
+            out.writeLong(v);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double v : values) {
+            out.writeDouble(v);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static int[] readInts(ByteBuffer buf) {
+        int[] values = new int[readLength(buf, 4)];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + values.length * 4);
+        return values;
+    }
+
+    static long[] readLongs(ByteBuffer buf) {
+        long[] values = new long[readLength(buf, 8)];
+        buf.asLongBuffer().get(values);
+        buf.position(buf.position() + values.length * 8);
+        return values;
+    }
+
+    static double[] readDoubles(ByteBuffer buf) {
+        double[] values = new double[readLength(buf, 8)];
+        buf.asDoubleBuffer().get(values);
+        buf.position(buf.position() + values.length * 8);
+        return values;
+    }
+
+    static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Reads an array length and checks that that many elements follow. */
+    private static int readLength(ByteBuffer buf, int elementBytes) {
+        int length = buf.getInt();
+        if (length < 0 || (long) length * elementBytes > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+}
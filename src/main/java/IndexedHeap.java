@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary min-heap of dense vertex indices keyed by doubles, with decrease-key.
+ *
+ * Every vertex is in the heap at most once, so the arrays are sized to the graph once and
+ * never grow. The position table holds -1 for every vertex that is not in the heap; pop and
+ * clear restore that, so the heap can be reused across searches without touching the whole
+ * table. A 4-ary heap is shallower than a binary one and its children share a cache line.
+ */
+public class IndexedHeap {
+    private static final int ARITY = 4;
+
+    private final int[] vertices;
+    private final double[] keys;
+    private final int[] pos;
+    private int size;
+
+    /**
+     * Creates an empty heap over the vertices 0 to capacity - 1.
+     * @param capacity The number of vertices.
+     */
+    public IndexedHeap(int capacity) {
+        vertices = new int[capacity];
+        keys = new double[capacity];
+        pos = new int[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int v) {
+        return pos[v] >= 0;
+    }
+
+    /** Removes every vertex, in time proportional to the current size. */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[vertices[i]] = -1;
+        }
+        size = 0;
+    }
+
+    int peek() {
+        return vertices[0];
+    }
+
+    double peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Inserts v with the given key, or lowers its key if v is already in the heap.
+     * A key that is not lower than the current one is ignored.
+     */
+    void push(int v, double key) {
+        int i = pos[v];
+        if (i < 0) {
+            i = size++;
+        } else if (key >= keys[i]) {
+            return;
+        }
+        siftUp(i, v, key);
+    }
+
+    /** Removes and returns the vertex with the smallest key. */
+    int pop() {
+        int top = vertices[0];
+        pos[top] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, vertices[size], keys[size]);
+        }
+        return top;
+    }
+
+    private void siftUp(int i, int v, double key) {
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(i, vertices[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, v, key);
+    }
+
+    private void siftDown(int i, int v, double key) {
+        while (true) {
+            int first = i * ARITY + 1;
+            if (first >= size) {
+                break;
+            }
+            int child = first;
+            int last = Math.min(first + ARITY, size);
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[child]) {
+                    child = c;
+                }
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            place(i, vertices[child], keys[child]);
+            i = child;
+        }
+        place(i, v, key);
+    }
+
+    private void place(int i, int v, double key) {
+        vertices[i] = v;
+        keys[i] = key;
+        pos[v] = i;
+    }
+}
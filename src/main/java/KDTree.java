@@ -0,0 +1,356 @@
+import java.util.Arrays;
+
+/**
+ * Static 2-d tree over a fixed set of lon/lat points, used to answer nearest-vertex queries
+ * without scanning the whole graph.
+ *
+ * The tree is implicit: {@code perm} is a permutation of the point indices such that the
+ * range [lo, hi) is split at mid = (lo + hi) / 2, with smaller keys on the left. Even levels
+ * split on longitude and odd levels on latitude. No node objects are allocated.
+ *
+ * Distances are the same great-circle distances as {@link GraphDB#distance}. Subtrees are
+ * pruned with exact lower bounds on the haversine term, and every candidate point first goes
+ * through a cheap equirectangular lower bound before its haversine is evaluated, so the
+ * results are exactly those of a linear scan (ties go to the lower point index).
+ */
+public class KDTree {
+    /** Earth radius in miles, as used by GraphDB.distance. */
+    private static final double EARTH_RADIUS = 3963;
+    /**
+     * Candidate sets of up to DIRECT_CANDIDATES points, or one DIRECT_SHARE-th of all points,
+     * are scored directly rather than looked for in the tree.
+     */
+    private static final int DIRECT_CANDIDATES = 64;
+    private static final int DIRECT_SHARE = 16;
+
+    private final double[] lons;
+    private final double[] lats;
+    /** Cosine of every point's latitude, hoisted out of the haversine. */
+    private final double[] cosLats;
+    /** Smallest cosLats value, which bounds the longitude term from below. */
+    private final double minCosLat;
+    private final int[] perm;
+
+    /**
+     * Builds a tree over the given points; point i is (lons[i], lats[i]).
+     * The arrays are not copied and must not be modified afterwards.
+     */
+    public KDTree(double[] lons, double[] lats) {
+        this(lons, lats, identity(lons.length));
+        build(0, perm.length, 0);
+    }
+
+    /**
+     * Restores a tree from a permutation previously returned by {@link #permutation()} for
+     * the same points, skipping the build.
+     */
+    KDTree(double[] lons, double[] lats, int[] perm) {
+        if (perm.length != lons.length) {
+            throw new IllegalArgumentException("Permutation covers " + perm.length
+                    + " points, expected " + lons.length);
+        }
+        this.lons = lons;
+        this.lats = lats;
+        this.cosLats = new double[lats.length];
+        double minCos = 1;
+        for (int i = 0; i < lats.length; i++) {
+            cosLats[i] = Math.cos(Math.toRadians(lats[i]));
+            minCos = Math.min(minCos, cosLats[i]);
+        }
+        this.minCosLat = minCos;
+        this.perm = perm;
+    }
+
+    private static int[] identity(int n) {
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        return perm;
+    }
+
+    /** Returns the tree layout, for storing in a graph snapshot. Must not be modified. */
+    int[] permutation() {
+        return perm;
+    }
+
+    /** Returns the number of points in the tree. */
+    public int size() {
+        return perm.length;
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth & 1);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /** Quickselect: partitions perm[lo..hi] so that perm[k] holds the k-th smallest key. */
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            double pivot = key(perm[(lo + hi) >>> 1], axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key(perm[i], axis) < pivot) {
+                    i++;
+                }
+                while (key(perm[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = perm[i];
+                    perm[i] = perm[j];
+                    perm[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double key(int p, int axis) {
+        return axis == 0 ? lons[p] : lats[p];
+    }
+
+    /**
+     * Returns the point closest to the given location.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The index of the closest point, or -1 if the tree is empty.
+     */
+    public int nearest(double lon, double lat) {
+        if (perm.length == 0) {
+            return -1;
+        }
+        Query q = new Query(lon, lat, 1);
+        search(q, 0, perm.length, 0);
+        return q.indices[0];
+    }
+
+    /**
+     * Returns the k points closest to the given location.
+     *
+     * @return Point indices ordered by increasing distance; shorter than k if the tree holds
+     * fewer points.
+     */
+    public int[] nearest(double lon, double lat, int k) {
+        if (k <= 0 || perm.length == 0) {
+            return new int[0];
+        }
+        Query q = new Query(lon, lat, Math.min(k, perm.length));
+        search(q, 0, perm.length, 0);
+        return q.sorted();
+    }
+
+    /**
+     * Returns the k points among candidates closest to the given location. When candidates
+     * are a small share of the points they are scored directly; otherwise the tree is walked
+     * as for {@link #nearest(double, double, int)}, passing over points that are not
+     * candidates, so that only candidates near the location are scored.
+     *
+     * @param candidates Point indices in ascending order.
+     * @return Point indices ordered by increasing distance; shorter than k if there are
+     * fewer candidates.
+     */
+    public int[] nearest(double lon, double lat, int k, int[] candidates) {
+        if (k <= 0 || candidates.length == 0) {
+            return new int[0];
+        }
+        Query q = new Query(lon, lat, Math.min(k, candidates.length));
+        if (candidates.length <= Math.max(DIRECT_CANDIDATES, perm.length / DIRECT_SHARE)) {
+            for (int p : candidates) {
+                q.offer(p);
+            }
+        } else {
+            q.candidates = candidates;
+            search(q, 0, perm.length, 0);
+        }
+        return q.sorted();
+    }
+
+    /**
+     * Returns all points within the given great-circle distance of a location.
+     *
+     * @param miles The search radius in miles.
+     * @return Point indices ordered by increasing distance.
+     */
+    public int[] withinRadius(double lon, double lat, double miles) {
+        if (perm.length == 0) {
+            return new int[0];
+        }
+        Query q = new Query(lon, lat, perm.length);
+        /* Seed the bound with the radius itself, so only points inside it are collected. */
+        double c = Math.min(miles / EARTH_RADIUS, Math.PI);
+        q.radius = miles;
+        q.radiusA = Math.sin(c / 2) * Math.sin(c / 2);
+        search(q, 0, perm.length, 0);
+        return q.sorted();
+    }
+
+    private void search(Query q, int lo, int hi, int depth) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int p = perm[mid];
+        if (q.candidates == null || Arrays.binarySearch(q.candidates, p) >= 0) {
+            q.offer(p);
+        }
+        if (hi - lo == 1) {
+            return;
+        }
+        int axis = depth & 1;
+        double delta = axis == 0 ? q.lon - lons[p] : q.lat - lats[p];
+        boolean left = delta < 0;
+        search(q, left ? lo : mid + 1, left ? mid : hi, depth + 1);
+        double h = Math.toRadians(Math.abs(delta)) / 2;
+        double s = Math.sin(Math.min(h, Math.PI / 2));
+        double bound = axis == 0 ? q.cosLat * minCosLat * s * s : s * s;
+        if (bound <= q.boundA()) {
+            search(q, left ? mid + 1 : lo, left ? hi : mid, depth + 1);
+        }
+    }
+
+    /** State of a single query: a max-heap of the best points found so far. */
+    private class Query {
+        final double lon;
+        final double lat;
+        final double cosLat;
+        final int capacity;
+        int[] indices;
+        double[] dists;
+        double[] as;
+        int count;
+        /** For radius queries, the radius and its haversine term; otherwise infinite. */
+        double radius = Double.POSITIVE_INFINITY;
+        double radiusA = Double.POSITIVE_INFINITY;
+        /** The only points to offer, in ascending order; null for all points. */
+        int[] candidates;
+
+        Query(double lon, double lat, int capacity) {
+            this.lon = lon;
+            this.lat = lat;
+            this.cosLat = Math.cos(Math.toRadians(lat));
+            this.capacity = capacity;
+            int initial = Math.min(capacity, 64);
+            this.indices = new int[initial];
+            this.dists = new double[initial];
+            this.as = new double[initial];
+        }
+
+        /** Haversine term a point must not exceed to still be a candidate. */
+        double boundA() {
+            return count < capacity ? radiusA : Math.min(radiusA, as[0]);
+        }
+
+        void offer(int p) {
+            double bound = boundA();
+            double dphi = Math.toRadians(lat - lats[p]);
+            double dlambda = Math.toRadians(lon - lons[p]);
+            /* Equirectangular pre-filter: sin(x)^2 >= x^2 (1 - x^2 / 3) bounds a from below. */
+            double y = dphi * dphi / 4;
+            double x = dlambda * dlambda / 4;
+            double lower = y * (1 - y / 3) + cosLats[p] * cosLat * x * (1 - x / 3);
+            if (lower * (1 - 1e-12) > bound) {
+                return;
+            }
+            double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
+            a += cosLats[p] * cosLat * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
+            if (a > bound) {
+                return;
+            }
+            double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+            double dist = EARTH_RADIUS * c;
+            if (dist > radius) {
+                return;
+            }
+            if (count < capacity) {
+                push(p, dist, a);
+            } else if (dist < dists[0] || (dist == dists[0] && p < indices[0])) {
+                /* Replace the current worst candidate. */
+                indices[0] = p;
+                dists[0] = dist;
+                as[0] = a;
+                siftDown(0, count);
+            }
+        }
+
+        /** Sorts the collected points by increasing distance and returns them. */
+        int[] sorted() {
+            for (int n = count - 1; n > 0; n--) {
+                swap(0, n);
+                siftDown(0, n);
+            }
+            return Arrays.copyOf(indices, count);
+        }
+
+        private void push(int p, double dist, double a) {
+            if (count == indices.length) {
+                int length = (int) Math.min(capacity, indices.length * 2L);
+                indices = Arrays.copyOf(indices, length);
+                dists = Arrays.copyOf(dists, length);
+                as = Arrays.copyOf(as, length);
+            }
+            int i = count++;
+            indices[i] = p;
+            dists[i] = dist;
+            as[i] = a;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, parent)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int n) {
+            while (true) {
+                int l = 2 * i + 1;
+                if (l >= n) {
+                    return;
+                }
+                int worst = l;
+                if (l + 1 < n && worse(l + 1, l)) {
+                    worst = l + 1;
+                }
+                if (!worse(worst, i)) {
+                    return;
+                }
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        /** True if candidate i ranks after candidate j. */
+        private boolean worse(int i, int j) {
+            return dists[i] > dists[j] || (dists[i] == dists[j] && indices[i] > indices[j]);
+        }
+
+        private void swap(int i, int j) {
+            int ti = indices[i];
+            indices[i] = indices[j];
+            indices[j] = ti;
+            double td = dists[i];
+            dists[i] = dists[j];
+            dists[j] = td;
+            double ta = as[i];
+            as[i] = as[j];
+            as[j] = ta;
+        }
+    }
+}
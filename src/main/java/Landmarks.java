@@ -0,0 +1,129 @@
+import java.util.Arrays;
+
+/**
+ * Landmark distance tables for the ALT (A*, landmarks, triangle inequality) heuristic.
+ *
+ * For a landmark L and any vertices v and t, the triangle inequality gives
+ * d(v, t) >= |d(L, t) - d(L, v)|, since all roads are two-way. With road distances from a
+ * few well spread landmarks precomputed, the largest of these differences is a lower bound
+ * on the remaining distance that, unlike the great-circle distance, accounts for detours
+ * around rivers and hills.
+ *
+ * Landmarks are chosen by farthest selection: the first is the vertex farthest from an
+ * arbitrary start, and every further one is the vertex farthest from all landmarks so far.
+ * Distances are stored vertex-major in one flat array, so a bound reads k adjacent doubles.
+ */
+public class Landmarks {
+    /** Landmark count used when none is given; set with -Dlandmarks=N. */
+    static final int DEFAULT_COUNT = Integer.getInteger("landmarks", 16);
+
+    private final int count;
+    private final int[] vertices;
+    /** Road distance from landmark i to vertex v at dist[v * count + i]; infinite if none. */
+    private final double[] dist;
+
+    private Landmarks(int[] vertices, double[] dist) {
+        this.count = vertices.length;
+        this.vertices = vertices;
+        this.dist = dist;
+    }
+
+    /**
+     * Chooses landmarks by farthest selection and computes their distance tables.
+     * @param g     The graph.
+     * @param count The number of landmarks; fewer are chosen if the graph is smaller.
+     * @return The landmark tables.
+     */
+    public static Landmarks select(CompactGraph g, int count) {
+        int n = g.size();
+        count = Math.max(0, Math.min(count, n));
+        int[] chosen = new int[count];
+        double[][] tables = new double[count][];
+        /* Distance from each vertex to the nearest landmark chosen so far. */
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        int next = count > 0 ? farthest(shortestPaths(g, 0), null) : -1;
+        for (int i = 0; i < count; i++) {
+            chosen[i] = next;
+            tables[i] = shortestPaths(g, next);
+            for (int v = 0; v < n; v++) {
+                nearest[v] = Math.min(nearest[v], tables[i][v]);
+            }
+            next = farthest(nearest, tables[i]);
+        }
+        double[] dist = new double[n * count];
+        for (int v = 0; v < n; v++) {
+            for (int i = 0; i < count; i++) {
+                dist[v * count + i] = tables[i][v];
+            }
+        }
+        return new Landmarks(chosen, dist);
+    }
+
+    /** Returns the reachable vertex with the largest finite value in dist. */
+    private static int farthest(double[] dist, double[] reachable) {
+        int best = 0;
+        for (int v = 0; v < dist.length; v++) {
+            boolean finite = reachable == null ? dist[v] < Double.POSITIVE_INFINITY
+                    : reachable[v] < Double.POSITIVE_INFINITY;
+            if (finite && dist[v] > dist[best]) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Dijkstra from s over the whole graph. */
+    private static double[] shortestPaths(CompactGraph g, int s) {
+        double[] dist = new double[g.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        MinHeap pq = new MinHeap();
+        dist[s] = 0;
+        pq.push(s, 0);
+        while (!pq.isEmpty()) {
+            double d = pq.peekKey();
+            int v = pq.pop();
+            if (d > dist[v]) {
+                continue;
+            }
+            for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                int w = g.target(e);
+                if (d + g.length(e) < dist[w]) {
+                    dist[w] = d + g.length(e);
+                    pq.push(w, dist[w]);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Returns the number of landmarks. */
+    public int count() {
+        return count;
+    }
+
+    /** Returns the dense index of landmark i. */
+    int vertex(int i) {
+        return vertices[i];
+    }
+
+    /**
+     * Returns a lower bound on the road distance between v and t.
+     * @param v Dense index of a vertex.
+     * @param t Dense index of the destination.
+     * @return The largest landmark bound, or 0 if no landmark reaches both vertices.
+     */
+    double lowerBound(int v, int t) {
+        double bound = 0;
+        int vi = v * count;
+        int ti = t * count;
+        for (int i = 0; i < count; i++) {
+            double dv = dist[vi + i];
+            double dt = dist[ti + i];
+            if (dv < Double.POSITIVE_INFINITY && dt < Double.POSITIVE_INFINITY) {
+                bound = Math.max(bound, Math.abs(dt - dv));
+            }
+        }
+        return bound;
+    }
+}
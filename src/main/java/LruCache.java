@@ -0,0 +1,150 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe least-recently-used cache bounded by the total weight of its values, for
+ * example their size in bytes.
+ *
+ * Entries live in an access-ordered LinkedHashMap behind a lock. Values are loaded outside
+ * the lock, so a slow load (a disk read, a PNG decode) never blocks hits on other keys; two
+ * threads missing on the same key at once may both load it, and the second result is dropped.
+ * Hit, miss and eviction counts are kept for sizing the cache in production.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class LruCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxWeight The largest total weight the cache may hold.
+     * @param weigher   The weight of a value; must not change while the value is cached.
+     */
+    public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /** Returns the cached value for key, or null, counting a hit or a miss. */
+    public V getIfPresent(K key) {
+        V value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Returns the cached value for key, loading and caching it on a miss.
+     *
+     * @param loader Computes the value; a null result is returned but not cached.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                value = putIfAbsent(key, value);
+            }
+        }
+        return value;
+    }
+
+    /** Returns whether key is cached, without counting a hit or a miss or touching recency. */
+    public synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Caches value unless key is already present, then evicts least recently used entries
+     * until the cache fits. A value heavier than the whole cache is not kept.
+     *
+     * @return The value now associated with key.
+     */
+    public synchronized V putIfAbsent(K key, V value) {
+        V existing = entries.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        long w = weigher.applyAsLong(value);
+        if (w > maxWeight) {
+            return value;
+        }
+        entries.put(key, value);
+        weight += w;
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            Map.Entry<K, V> entry = eldest.next();
+            weight -= weigher.applyAsLong(entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        return value;
+    }
+
+    /** Removes the entry for key, if any, for a value that has gone stale. */
+    public synchronized void remove(K key) {
+        V value = entries.remove(key);
+        if (value != null) {
+            weight -= weigher.applyAsLong(value);
+        }
+    }
+
+    /** Removes every entry; the counters are kept. */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** Returns the counters and the current size, for the stats endpoint. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long h = hits();
+        long m = misses();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_rate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions());
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("weight", weight);
+        }
+        stats.put("max_weight", maxWeight);
+        return stats;
+    }
+}
@@ -2,12 +2,14 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 
 
 /* Maven is used to pull in these dependencies. */
@@ -41,6 +43,19 @@ public class MapServer {
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
     /** The tile images are in the IMG_ROOT folder. */
     private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    /** Memory limit of the decoded tile cache; set with -DtileCacheMB=N. */
+    private static final long TILE_CACHE_BYTES = Long.getLong("tileCacheMB", 64) << 20;
+    /** Memory limit of the encoded raster cache; set with -DrasterCacheMB=N. */
+    private static final long RASTER_CACHE_BYTES = Long.getLong("rasterCacheMB", 32) << 20;
+    /** Threads decoding and composing tiles, shared by all requests; set with -DtileThreads=N. */
+    private static final int TILE_THREADS = Integer.getInteger("tileThreads",
+            Runtime.getRuntime().availableProcessors());
+    /** The most completions a search returns; set with -DsearchLimit=N. */
+    private static final int SEARCH_LIMIT = Integer.getInteger("searchLimit", 10);
+    /** Limit of the memory-mapped tile files served by /tile; set with -DtileFilesMB=N. */
+    private static final long TILE_FILES_BYTES = Long.getLong("tileFilesMB", 64) << 20;
+    /** How long browsers may keep a tile before revalidating it; set with -DtileMaxAge=N. */
+    private static final long TILE_MAX_AGE_SECS = Long.getLong("tileMaxAge", 86400);
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -64,6 +79,58 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
+    /**
+     * Optional route request parameter selecting the search algorithm, one of the
+     * Router.Mode names in any case. Defaults to single-direction A*.
+     **/
+    private static final String ROUTE_MODE_PARAM = "mode";
+    /**
+     * Optional raster request parameter; when present, /raster returns the grid of tile
+     * paths and the raster bounds without rendering an image.
+     **/
+    private static final String TILE_MODE_PARAM = "tiles";
+    /**
+     * Optional raster request parameter; when present, the current route is drawn on the
+     * raster, for clients that do not draw the route_polylines from /route themselves.
+     **/
+    private static final String DRAW_ROUTE_PARAM = "draw_route";
+    /** Optional search request parameter; the most completions to return. */
+    private static final String SEARCH_LIMIT_PARAM = "limit";
+    /**
+     * Optional search request parameter; when present, the names within a few edits of the
+     * term are returned instead of its completions. Its value may set the number of edits,
+     * 1 or 2; by default short terms allow 1 and longer ones 2.
+     **/
+    private static final String FUZZY_PARAM = "fuzzy";
+    /**
+     * Optional search request parameter; when present, the locations whose names contain all
+     * words of the term, the last one possibly unfinished, are returned as with full.
+     **/
+    private static final String WORDS_PARAM = "words";
+    /**
+     * Optional search request parameters; with a center, full and words searches return
+     * the locations closest to it first. Words searches return at most limit of them, full
+     * searches all of them unless a limit is given, so every location of a name is still
+     * marked.
+     **/
+    private static final String[] SEARCH_CENTER_PARAMS = {"lon", "lat"};
+    /**
+     * Optional search request parameters, as for a raster; a viewport searches from its
+     * center when no center is given.
+     **/
+    private static final String[] SEARCH_VIEWPORT_PARAMS = {"ullat", "ullon", "lrlat",
+        "lrlon"};
+    /** The most edits a fuzzy search allows. */
+    private static final int MAX_FUZZY_DISTANCE = 2;
+    /** Terms this short or shorter get one edit by default, as two would match too much. */
+    private static final int SHORT_TERM_LENGTH = 4;
+    /**
+     * Optional raster request parameter selecting the image encoder by its RasterEncoder
+     * spec, e.g. png:1:up or jpeg:0.8. Defaults to RasterEncoder.DEFAULT_SPEC.
+     **/
+    private static final String RASTER_ENCODER_PARAM = "encoder";
+    private static final RasterEncoder DEFAULT_ENCODER =
+            RasterEncoder.forName(RasterEncoder.DEFAULT_SPEC);
 
     /**
      * The result of rastering must be a map containing all of the
@@ -71,10 +138,39 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
-
+    /**
+     * Response headers of the binary raster endpoint, and the raster result fields they
+     * carry. Header names avoid underscores, which some proxies drop.
+     **/
+    private static final String[] RASTER_HEADERS = {"X-Raster-UL-Lon", "X-Raster-UL-Lat",
+        "X-Raster-LR-Lon", "X-Raster-LR-Lat", "X-Raster-Depth", "X-Raster-Width",
+        "X-Raster-Height"};
+    private static final String[] RASTER_HEADER_FIELDS = {"raster_ul_lon", "raster_ul_lat",
+        "raster_lr_lon", "raster_lr_lat", "depth", "raster_width", "raster_height"};
+
+    /** The tiles in IMG_ROOT, with their depths and bounds. */
+    private static TilePyramid pyramid;
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /**
+     * The current route, drawn on rasters that ask for it. Always replaced as a whole, so
+     * request threads can read it without locking.
+     */
+    private static volatile DrawnRoute route = DrawnRoute.EMPTY;
+    /** Source of route versions; every new or cleared route gets the next one. */
+    private static final AtomicLong ROUTE_VERSIONS = new AtomicLong();
+    /** Decoded tiles keyed by d{depth}_x{x}_y{y}, bounded by their pixel memory. */
+    private static LruCache<String, BufferedImage> tileCache;
+    /**
+     * Finished rasters keyed by their tile range, encoder and the version of the route drawn
+     * on them if any, bounded by their encoded size.
+     */
+    private static LruCache<String, RenderedRaster> rasterCache;
+    /** The tile files of IMG_ROOT, served one by one to clients that raster tiles themselves. */
+    private static TileFiles tileFiles;
+    private static TileCompositor compositor;
+    /** Warms tileCache around recent viewports; null when disabled with -Dprefetch=false. */
+    private static TilePrefetcher prefetcher;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -84,8 +180,29 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer();
+        long begin = System.nanoTime();
+        graph = GraphDB.load(OSM_DB_PATH);
+        System.out.println(String.format("Loaded graph in %.0f ms",
+                (System.nanoTime() - begin) / 1e6));
+        pyramid = TilePyramid.fromProperties();
+        rasterer = new Rasterer(pyramid);
+        tileCache = new LruCache<>(TILE_CACHE_BYTES, MapServer::imageBytes);
+        rasterCache = new LruCache<>(RASTER_CACHE_BYTES, RenderedRaster::weight);
+        tileFiles = new TileFiles(IMG_ROOT, pyramid, TILE_MAX_AGE_SECS,
+                TILE_FILES_BYTES);
+        compositor = new TileCompositor(TILE_THREADS);
+        if (Boolean.parseBoolean(System.getProperty("prefetch", "true"))) {
+            prefetcher = new TilePrefetcher(pyramid,
+                    fileName -> tileCache.contains(tileKey(fileName)),
+                    fileName -> {
+                        BufferedImage img = readImage(IMG_ROOT + fileName);
+                        if (img == null) {
+                            return false;
+                        }
+                        tileCache.putIfAbsent(tileKey(fileName), img);
+                        return true;
+                    });
+        }
     }
 
     public static void main(String[] args) {
@@ -104,33 +221,58 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            if (req.queryParams().contains(TILE_MODE_PARAM)) {
+                /* Tile mode: only the grid of tile paths and the bounds, nothing rendered. */
+                return new Gson().toJson(rasterer.getMapRaster(params, true));
+            }
+            return rasterJson(params, getRasterEncoder(req),
+                    req.queryParams().contains(DRAW_ROUTE_PARAM));
+        });
 
-            boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
+        /* Define the endpoint for single tiles, e.g. /tiles/3/1/2.png for d3_x1_y2.png. */
+        get("/tiles/:depth/:x/:file", (req, res) -> {
+            String fileName = tileFileName(req.params(":depth"), req.params(":x"),
+                    req.params(":file"));
+            tileFiles.send(fileName, req.headers("If-None-Match"), res.raw());
+            return "";
+        });
 
-            if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+        /* Define the binary raster endpoint: the same image as /raster, sent as plain image
+         * bytes with the raster metadata in response headers. */
+        get("/raster.png", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            RasterEncoder encoder = getRasterEncoder(req);
+            Map<String, Object> metadata = new HashMap<>();
+            byte[] image = rasterImage(params, encoder,
+                    req.queryParams().contains(DRAW_ROUTE_PARAM), metadata);
+            if (image == null) {
+                halt(HALT_RESPONSE, "Raster query failed.");
             }
-
-            /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
+            res.type(encoder.mimeType());
+            for (int i = 0; i < RASTER_HEADERS.length; i++) {
+                res.header(RASTER_HEADERS[i],
+                        String.valueOf(metadata.get(RASTER_HEADER_FIELDS[i])));
+            }
+            res.header("Access-Control-Expose-Headers", String.join(", ", RASTER_HEADERS));
+            res.raw().setContentLength(image.length);
+            /* Spark writes a byte[] body straight to the response stream. */
+            return image;
         });
 
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            Router.Mode mode = getRouteMode(req);
+            List<Long> path = Router.shortestPath(graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"), mode);
+            DrawnRoute drawn = setRoute(path);
+            String directions = getDirectionsText(path);
             Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("routing_success", !path.isEmpty());
+            routeParams.put("route_polyline", drawn.polyline());
+            routeParams.put("route_polylines", drawn.polylines());
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
             Gson gson = new Gson();
@@ -148,17 +290,51 @@ public class MapServer {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
             Gson gson = new Gson();
-            /* Search for actual location data. */
-            if (reqParams.contains("full")) {
+            double[] center = getSearchCenter(req);
+            if (center != null && reqParams.contains("full")) {
+                /* Search for the locations of a name closest to the center. */
+                int limit = reqParams.contains(SEARCH_LIMIT_PARAM) ? getSearchLimit(req)
+                        : Integer.MAX_VALUE;
+                List<Map<String, Object>> data = getLocations(term, center[0], center[1],
+                        limit);
+                return gson.toJson(data);
+            } else if (center != null && reqParams.contains(WORDS_PARAM)) {
+                List<Map<String, Object>> data = getLocationsByWords(term, center[0],
+                        center[1], getSearchLimit(req));
+                return gson.toJson(data);
+            } else if (reqParams.contains("full")) {
+                /* Search for actual location data. */
                 List<Map<String, Object>> data = getLocations(term);
                 return gson.toJson(data);
+            } else if (reqParams.contains(WORDS_PARAM)) {
+                /* Search for locations by any words of their names. */
+                List<Map<String, Object>> data = getLocationsByWords(term, getSearchLimit(req));
+                return gson.toJson(data);
+            } else if (reqParams.contains(FUZZY_PARAM)) {
+                /* Search for names close to the term, for mistyped terms. */
+                List<String> matches = getLocationsFuzzy(term, getFuzzyDistance(req, term),
+                        getSearchLimit(req));
+                return gson.toJson(matches);
             } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
+                /* Search for the best prefix matching strings. */
+                List<String> matches = getTopLocationsByPrefix(term, getSearchLimit(req));
                 return gson.toJson(matches);
             }
         });
 
+        /* Define the endpoint reporting cache counters, for sizing the caches. */
+        get("/stats", (req, res) -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("tile_cache", tileCache.stats());
+            stats.put("raster_cache", rasterCache.stats());
+            stats.put("tile_files", tileFiles.stats());
+            if (prefetcher != null) {
+                stats.put("prefetch", prefetcher.stats());
+            }
+            res.type("application/json");
+            return new Gson().toJson(stats);
+        });
+
         /* Define map application redirect */
         get("/", (request, response) -> {
             response.redirect("/map.html", 301);
@@ -193,31 +369,101 @@ public class MapServer {
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * Reads the optional result limit of a search request, halting on a bad one.
+     * @param req HTTP Request.
+     * @return The requested limit, at most SEARCH_LIMIT, or SEARCH_LIMIT if none was given.
+     */
+    private static int getSearchLimit(spark.Request req) {
+        String limit = req.queryParams(SEARCH_LIMIT_PARAM);
+        if (limit == null) {
+            return SEARCH_LIMIT;
+        }
+        try {
+            return Math.max(0, Math.min(SEARCH_LIMIT, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide a whole number limit.");
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the optional center of a search request, given directly or as a viewport,
+     * halting on a bad one.
+     * @param req HTTP Request.
+     * @return The center as {lon, lat}, or null if none was given.
+     */
+    private static double[] getSearchCenter(spark.Request req) {
+        Set<String> reqParams = req.queryParams();
+        if (reqParams.containsAll(Arrays.asList(SEARCH_CENTER_PARAMS))) {
+            Map<String, Double> params = getRequestParams(req, SEARCH_CENTER_PARAMS);
+            return new double[]{params.get("lon"), params.get("lat")};
+        }
+        if (reqParams.containsAll(Arrays.asList(SEARCH_VIEWPORT_PARAMS))) {
+            Map<String, Double> params = getRequestParams(req, SEARCH_VIEWPORT_PARAMS);
+            return new double[]{(params.get("ullon") + params.get("lrlon")) / 2,
+                (params.get("ullat") + params.get("lrlat")) / 2};
+        }
+        return null;
+    }
+
+    /**
+     * Reads the number of edits a fuzzy search request allows, halting on a bad one.
+     * @param req  HTTP Request.
+     * @param term The search term.
+     * @return The requested number, or a default that depends on the length of the term.
+     */
+    private static int getFuzzyDistance(spark.Request req, String term) {
+        String distance = req.queryParams(FUZZY_PARAM);
+        if (distance == null || distance.isEmpty()) {
+            return GraphDB.cleanString(term).length() <= SHORT_TERM_LENGTH ? 1
+                    : MAX_FUZZY_DISTANCE;
+        }
+        try {
+            return Math.max(0, Math.min(MAX_FUZZY_DISTANCE, Integer.parseInt(distance)));
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide a whole number of edits.");
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the optional search algorithm of a route request.
+     * @param req HTTP Request.
+     * @return The requested mode, or the default mode if none was given.
+     */
+    private static Router.Mode getRouteMode(spark.Request req) {
+        try {
+            return Router.Mode.fromString(req.queryParams(ROUTE_MODE_PARAM));
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - unknown routing mode.");
+            return null;
+        }
+    }
+
+    /**
+     * Draws the images corresponding to rasteredImgParams, and the route on top of them.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
-    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+    private static BufferedImage renderImage(Map<String, Object> rasteredImageParams,
+                                             DrawnRoute route) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
         BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
                 numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
-        Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
+        if (prefetcher == null) {
+            compositor.compose(renderGrid, MapServer::getImage, img);
+        } else {
+            prefetcher.beginForeground();
+            try {
+                compositor.compose(renderGrid, MapServer::getImage, img);
+            } finally {
+                prefetcher.endForeground();
             }
         }
+        Graphics graphic = img.getGraphics();
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -227,53 +473,220 @@ public class MapServer {
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
+        /* Only the vertices that are visible at the depth of the tiles. */
+        int depth = (int) rasteredImageParams.get("depth");
+        double[] lons = route.lons(depth);
+        double[] lats = route.lats(depth);
+        if (lons.length > 1) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            for (int i = 1; i < lons.length; i++) {
+                g2d.drawLine((int) ((lons[i - 1] - ullon) * (1 / wdpp)),
+                             (int) ((ullat - lats[i - 1]) * (1 / hdpp)),
+                             (int) ((lons[i] - ullon) * (1 / wdpp)),
+                             (int) ((ullat - lats[i]) * (1 / hdpp)));
+            }
+        }
+
+        return img;
+    }
+
+    /**
+     * Draws the raster for a rasterer result with the current route, without encoding it.
+     * For benchmarking the encoders.
+     */
+    static BufferedImage renderRaster(Map<String, Double> params) {
+        Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+        if (!validateRasteredImgParams(rasteredImgParams)) {
+            return null;
         }
+        return renderImage(rasteredImgParams, route);
+    }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
+    /**
+     * Returns the decoded tile with the given file name in IMG_ROOT, from the tile cache if
+     * it is there.
+     * @param fileName A file name from a render grid, e.g. d3_x1_y2.png.
+     * @return The tile, or null if it cannot be read.
+     */
+    private static BufferedImage getImage(String fileName) {
+        if (prefetcher != null) {
+            prefetcher.used(fileName);
+        }
+        return tileCache.get(tileKey(fileName), key -> readImage(IMG_ROOT + fileName));
+    }
 
+    /**
+     * Returns the raster encoder a request selects, halting on an unknown one.
+     */
+    private static RasterEncoder getRasterEncoder(spark.Request req) {
+        String spec = req.queryParams(RASTER_ENCODER_PARAM);
+        if (spec == null) {
+            return DEFAULT_ENCODER;
+        }
         try {
-            ImageIO.write(img, "png", os);
+            return RasterEncoder.forName(spec);
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - unknown raster encoder.");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the file name of the tile at the given path segments of a /tiles request, or
+     * null if they do not name a tile.
+     */
+    private static String tileFileName(String depth, String x, String file) {
+        if (!file.endsWith(".png")) {
+            return null;
+        }
+        try {
+            return tileFiles.fileName(Integer.parseInt(depth), Integer.parseInt(x),
+                    Integer.parseInt(file.substring(0, file.length() - 4)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Strips the extension from a tile file name, giving d{depth}_x{x}_y{y}. */
+    private static String tileKey(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+
+    private static BufferedImage readImage(String imgPath) {
+        try {
+            /* Cached in the raster's own pixel format, so composing only copies rows. */
+            return TileCompositor.toIntRgb(ImageIO.read(new File(imgPath)));
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Memory held by the pixels of an image. */
+    private static long imageBytes(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Builds the JSON body of a /raster response: the rasterer result with the encoded image
+     * Base64 encoded into it, and the image's MIME type as raster_type.
+     * @param params    The raster request parameters.
+     * @param encoder   The encoder of the image.
+     * @param drawRoute Whether to draw the current route on the image.
+     */
+    static String rasterJson(Map<String, Double> params, RasterEncoder encoder,
+                             boolean drawRoute) {
+        /* getMapRaster() does almost all the work for this API call */
+        Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+
+        boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
+
+        if (rasterSuccess) {
+            RenderedRaster raster = getRaster(rasteredImgParams, encoder, drawRoute);
+            rasteredImgParams.put("raster_width", raster.width);
+            rasteredImgParams.put("raster_height", raster.height);
+            rasteredImgParams.put("raster_type", encoder.mimeType());
+            rasteredImgParams.put("b64_encoded_image_data", raster.base64());
+        }
+
+        /* Encode response to Json */
+        Gson gson = new Gson();
+        return gson.toJson(rasteredImgParams);
+    }
+
+    /**
+     * Renders the raster of a request as encoded bytes, for the binary endpoint.
+     * @param params    The raster request parameters.
+     * @param encoder   The encoder of the image.
+     * @param drawRoute Whether to draw the current route on the image.
+     * @param metadata  Receives the rasterer result fields plus raster_width and
+     *                  raster_height.
+     * @return The encoded image, or null if the query failed. The array is shared with the
+     * raster cache and must not be modified.
+     */
+    static byte[] rasterImage(Map<String, Double> params, RasterEncoder encoder,
+                              boolean drawRoute, Map<String, Object> metadata) {
+        Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+        metadata.putAll(rasteredImgParams);
+        if (!validateRasteredImgParams(rasteredImgParams)) {
+            return null;
         }
+        RenderedRaster raster = getRaster(rasteredImgParams, encoder, drawRoute);
+        metadata.put("raster_width", raster.width);
+        metadata.put("raster_height", raster.height);
+        return raster.bytes;
+    }
 
+    /**
+     * Clears the tile and raster caches, so the next raster is rendered from the files.
+     */
+    static void clearCaches() {
+        tileCache.clear();
+        rasterCache.clear();
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
+    /**
+     * Returns the finished raster for a rasterer result, with the current route drawn on it
+     * if asked, from the raster cache if the same tiles were rendered with the same encoder
+     * and the same route or none before. Rasters without a route never go stale.
+     * @throws UncheckedIOException If the image cannot be encoded; nothing is cached.
+     */
+    private static RenderedRaster getRaster(Map<String, Object> rasteredImageParams,
+                                            RasterEncoder encoder, boolean drawRoute) {
+        DrawnRoute drawn = drawRoute ? route : DrawnRoute.EMPTY;
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        if (prefetcher != null) {
+            prefetcher.viewed(renderGrid);
+        }
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        /* The corner tile names pin down the depth and the tile index range. */
+        String key = renderGrid[0][0] + ":" + lastRow[lastRow.length - 1] + "@" + drawn.version
+                + "/" + encoder.spec();
+        return rasterCache.get(key, k -> {
+            BufferedImage img = renderImage(rasteredImageParams, drawn);
             try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
+                return new RenderedRaster(encoder.encode(img), img.getWidth(), img.getHeight());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+        });
+    }
+
+    /**
+     * Replaces the current route. Rasters drawn with the old one are no longer looked up and
+     * age out of the raster cache.
+     * @param path The new route; may be empty.
+     * @return The new route.
+     */
+    private static DrawnRoute setRoute(List<Long> path) {
+        double[] lons = new double[path.size()];
+        double[] lats = new double[path.size()];
+        for (int i = 0; i < lons.length; i++) {
+            lons[i] = graph.lon(path.get(i));
+            lats[i] = graph.lat(path.get(i));
         }
-        return tileImg;
+        DrawnRoute drawn = new DrawnRoute(lons, lats, new RouteGeometry(lats, lons, pyramid),
+                ROUTE_VERSIONS.incrementAndGet());
+        route = drawn;
+        return drawn;
     }
 
     /**
      * Clear the current found route, if it exists.
      */
     public static void clearRoute() {
-        route = new LinkedList<Long>();
+        route = DrawnRoute.EMPTY;
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect all the names of OSM locations that prefix-match the query string, in time
+     * logarithmic in the number of names plus linear in the number of matches.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
@@ -283,6 +696,29 @@ public class MapServer {
         return graph.keysWithPrefixOf(prefix);
     }
 
+    /**
+     * Collect the k best completions of the query string, ranked by how many locations share
+     * the cleaned name, in time independent of how many names match.
+     * @param prefix Prefix string to be searched for.
+     * @param k      The most completions to return.
+     * @return The full name of one location per cleaned name, best first.
+     */
+    public static List<String> getTopLocationsByPrefix(String prefix, int k) {
+        return graph.topKeysWithPrefixOf(prefix, k);
+    }
+
+    /**
+     * Collect the names of OSM locations within a few edits of the query string, so that
+     * mistyped names are still found.
+     * @param name        A possibly mistyped location name.
+     * @param maxDistance The most insertions, deletions and substitutions allowed.
+     * @param k           The most names to return.
+     * @return The full name of one location per cleaned name, closest first.
+     */
+    public static List<String> getLocationsFuzzy(String name, int maxDistance, int k) {
+        return graph.fuzzyKeysOf(name, maxDistance, k);
+    }
+
     /**
      * Collect all locations that match a cleaned <code>locationName</code>, and return
      * information about each node that matches.
@@ -299,17 +735,73 @@ public class MapServer {
         List<Long> nodes = graph.getLocations(locationName);
         List<Map<String, Object>> nodeLocations = new LinkedList<>();
         for (Long i : nodes) {
-            Map<String, Object> map = new HashMap<>();
-            GraphDB.Node node = GraphDB.locations.get(i);
-            map.put("lat", node.lat);
-            map.put("lon", node.lon);
-            map.put("name", node.name);
-            map.put("id", node.id);
-            nodeLocations.add(map);
+            nodeLocations.add(locationMap(i));
+        }
+        return nodeLocations;
+    }
+
+    /**
+     * As getLocations(locationName), but closest to a point first, so that a chain with many
+     * branches lists those in view before those across town.
+     * @param locationName A full name of a location searched for.
+     * @param lon   The longitude to rank by distance from.
+     * @param lat   The latitude to rank by distance from.
+     * @param limit The most locations to return.
+     * @return The matching locations in order of distance, as in getLocations.
+     */
+    public static List<Map<String, Object>> getLocations(String locationName, double lon,
+                                                         double lat, int limit) {
+        List<Map<String, Object>> nodeLocations = new ArrayList<>();
+        for (long id : graph.nearestLocations(locationName, lon, lat, limit)) {
+            nodeLocations.add(locationMap(id));
+        }
+        return nodeLocations;
+    }
+
+    /**
+     * Collect the locations whose cleaned names contain every word of the query, the last
+     * word possibly unfinished, so that "library" finds "Doe Memorial Library".
+     * @param query Words of a location name, in any order.
+     * @param limit The most locations to return.
+     * @return The matching locations in cleaned name order, as in getLocations.
+     */
+    public static List<Map<String, Object>> getLocationsByWords(String query, int limit) {
+        List<Map<String, Object>> nodeLocations = new ArrayList<>();
+        for (long id : graph.locationsWithWords(query, limit)) {
+            nodeLocations.add(locationMap(id));
         }
         return nodeLocations;
     }
 
+    /**
+     * As getLocationsByWords(query, limit), but closest to a point first. Only matches near
+     * the point are scored, so a common word costs little more than a rare one.
+     * @param query Words of a location name, in any order.
+     * @param lon   The longitude to rank by distance from.
+     * @param lat   The latitude to rank by distance from.
+     * @param limit The most locations to return.
+     * @return The matching locations in order of distance, as in getLocations.
+     */
+    public static List<Map<String, Object>> getLocationsByWords(String query, double lon,
+                                                                double lat, int limit) {
+        List<Map<String, Object>> nodeLocations = new ArrayList<>();
+        for (long id : graph.nearestLocationsWithWords(query, lon, lat, limit)) {
+            nodeLocations.add(locationMap(id));
+        }
+        return nodeLocations;
+    }
+
+    /** The search result parameters of the location with an id, as getLocations lists them. */
+    private static Map<String, Object> locationMap(long id) {
+        Map<String, Object> map = new HashMap<>();
+        GraphDB.Node node = graph.location(id);
+        map.put("lat", node.lat);
+        map.put("lon", node.lon);
+        map.put("name", node.name);
+        map.put("id", node.id);
+        return map;
+    }
+
     /**
      * Validates that Rasterer has returned a result that can be rendered.
      * @param rip : Parameters provided by the rasterer
@@ -332,10 +824,10 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route found by this MapServer and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
+    private static String getDirectionsText(List<Long> route) {
         List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
         if (directions == null || directions.isEmpty()) {
           return "";
@@ -348,4 +840,80 @@ public class MapServer {
         }
         return sb.toString();
     }
+
+    /**
+     * The coordinates of a route, read from the graph once, and simplified for each depth,
+     * together with the version that identifies it in raster cache keys.
+     */
+    private static class DrawnRoute {
+        /** No route; version 0 is never given to a real route. */
+        private static final DrawnRoute EMPTY = new DrawnRoute(new double[0], new double[0],
+                null, 0);
+        private final double[] lons;
+        private final double[] lats;
+        /** The simplified route; null for no route. */
+        private final RouteGeometry geometry;
+        private final long version;
+        private volatile String polyline;
+
+        DrawnRoute(double[] lons, double[] lats, RouteGeometry geometry, long version) {
+            this.lons = lons;
+            this.lats = lats;
+            this.geometry = geometry;
+            this.version = version;
+        }
+
+        /** The longitudes of the vertices visible at depth. */
+        double[] lons(int depth) {
+            return geometry == null ? lons : geometry.lons(depth);
+        }
+
+        /** The latitudes of the vertices visible at depth. */
+        double[] lats(int depth) {
+            return geometry == null ? lats : geometry.lats(depth);
+        }
+
+        /** The route simplified for each depth, as encoded polylines indexed by depth. */
+        List<String> polylines() {
+            return geometry == null ? Collections.emptyList() : geometry.polylines();
+        }
+
+        /** The route as an encoded polyline, for clients that draw it themselves. */
+        String polyline() {
+            String encoded = polyline;
+            if (encoded == null) {
+                encoded = Polyline.encode(lats, lons, lats.length);
+                polyline = encoded;
+            }
+            return encoded;
+        }
+    }
+
+    /** An encoded raster image; the Base64 form for the JSON response is made on first use. */
+    private static class RenderedRaster {
+        private final byte[] bytes;
+        private final int width;
+        private final int height;
+        private volatile String base64;
+
+        RenderedRaster(byte[] bytes, int width, int height) {
+            this.bytes = bytes;
+            this.width = width;
+            this.height = height;
+        }
+
+        String base64() {
+            String b64 = base64;
+            if (b64 == null) {
+                b64 = Base64.getEncoder().encodeToString(bytes);
+                base64 = b64;
+            }
+            return b64;
+        }
+
+        /** Bytes held once the Base64 form exists: the image plus 4/3 of it as Latin-1 text. */
+        long weight() {
+            return bytes.length + (bytes.length + 2) / 3 * 4L;
+        }
+    }
 }
@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of (vertex, key) pairs over primitive arrays, for Dijkstra-style searches.
+ * There is no decrease-key: a vertex is pushed again when its key improves and callers skip
+ * the outdated entries when they pop them.
+ */
+public class MinHeap {
+    private int[] vertices = new int[64];
+    private double[] keys = new double[64];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    double peekKey() {
+        return keys[0];
+    }
+
+    void push(int v, double key) {
+        if (size == vertices.length) {
+            vertices = Arrays.copyOf(vertices, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            vertices[i] = vertices[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        vertices[i] = v;
+        keys[i] = key;
+    }
+
+    int pop() {
+        int top = vertices[0];
+        size--;
+        int v = vertices[size];
+        double key = keys[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            vertices[i] = vertices[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        vertices[i] = v;
+        keys[i] = key;
+        return top;
+    }
+}
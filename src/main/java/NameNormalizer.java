@@ -0,0 +1,90 @@
+import java.text.Normalizer;
+
+/**
+ * Cleans location names and search terms into the keys of the name index: lower case
+ * letters and spaces, with everything else dropped. Accented Latin letters fold to their
+ * base letters (Caf&eacute; becomes cafe, Stra&szlig;e becomes strasse) and letters of
+ * other scripts are kept in lower case, where a filter for a-z would drop them and leave the
+ * name unsearchable.
+ *
+ * Cleaning is one pass over the characters with a lookup table built at class load, so it
+ * compiles no pattern and, for a name that is already clean, allocates nothing. For ASCII
+ * input it gives what the replaceAll("[^a-zA-Z ]", "").toLowerCase() it replaces gave.
+ */
+public class NameNormalizer {
+    /** Characters below this are folded by table; the rest by Character. */
+    private static final int TABLE_SIZE = 0x250;
+    /** What each tabled character becomes: up to two characters, 0 for none. */
+    private static final char[] FIRST = new char[TABLE_SIZE];
+    private static final char[] SECOND = new char[TABLE_SIZE];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            FIRST[c] = c;
+            FIRST[Character.toUpperCase(c)] = c;
+        }
+        FIRST[' '] = ' ';
+        for (char c = 0x80; c < TABLE_SIZE; c++) {
+            if (!Character.isLetter(c)) {
+                continue;
+            }
+            /* Decomposition splits off accents, leaving the base letter. */
+            String base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char folded = Character.toLowerCase(base.charAt(0));
+            FIRST[c] = folded < 0x80 && FIRST[folded] != 0 ? folded : Character.toLowerCase(c);
+        }
+        /* Letters that do not decompose but have a usual ASCII spelling. */
+        fold("\u00dfss \u00e6ae \u00c6AE \u0153oe \u0152OE \u00f8o \u00d8O "
+                + "\u0111d \u0110d \u00f0d \u00d0d \u0127h \u0126h \u0131i "
+                + "\u0142l \u0141l \u00feth \u00deth \u0167t \u0166t");
+    }
+
+    private NameNormalizer() {
+    }
+
+    /** Reads pairs like "\u00e6ae" as the letter folding to ae, separated by spaces. */
+    private static void fold(String pairs) {
+        for (String pair : pairs.split(" ")) {
+            char c = pair.charAt(0);
+            FIRST[c] = Character.toLowerCase(pair.charAt(1));
+            SECOND[c] = pair.length() > 2 ? Character.toLowerCase(pair.charAt(2)) : 0;
+        }
+    }
+
+    /**
+     * Returns s cleaned: letters folded to lower case, spaces kept, everything else dropped.
+     * Returns s itself if it is already clean.
+     */
+    public static String clean(String s) {
+        int n = s.length();
+        int i = 0;
+        /* Most names and terms are clean or nearly so; find the first character to change. */
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == 0 || c >= TABLE_SIZE || FIRST[c] != c || SECOND[c] != 0) {
+                break;
+            }
+            i++;
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[2 * n];
+        s.getChars(0, i, out, 0);
+        int length = i;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < TABLE_SIZE) {
+                if (FIRST[c] != 0) {
+                    out[length++] = FIRST[c];
+                    if (SECOND[c] != 0) {
+                        out[length++] = SECOND[c];
+                    }
+                }
+            } else if (Character.isLetter(c)) {
+                out[length++] = Character.toLowerCase(c);
+            }
+        }
+        return new String(out, 0, length);
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class provides a main method that cleans every location name of the map, and every
+ * prefix of them as a user would type it, with the regex cleaning GraphDB used to do and with
+ * NameNormalizer, printing the median time per string of each.
+ * Usage: NormalizerBenchmark
+ */
+public class NormalizerBenchmark {
+    /** Untimed rounds over all strings, so both run JIT-compiled code. */
+    private static final int WARMUP_ROUNDS = 5;
+    /** Timed rounds over all strings; the median is reported. */
+    private static final int TIMED_ROUNDS = 11;
+
+    public static void main(String[] args) {
+        MapServer.initialize();
+        List<String> strings = new ArrayList<>();
+        for (String name : MapServer.getLocationsByPrefix("")) {
+            for (int i = 1; i <= name.length(); i++) {
+                strings.add(name.substring(0, i));
+            }
+        }
+        String[] input = strings.toArray(new String[0]);
+        int nonAscii = 0;
+        int differ = 0;
+        for (String s : input) {
+            if (!s.chars().allMatch(c -> c < 0x80)) {
+                nonAscii++;
+            } else if (!regex(s).equals(NameNormalizer.clean(s))) {
+                differ++;
+            }
+        }
+        System.out.println(String.format("%d strings, %d with non-ASCII characters, "
+                + "%d ASCII strings cleaned differently", input.length, nonAscii, differ));
+        System.out.println(String.format("%-16s%12s", "cleaning", "ns/string"));
+        System.out.println(String.format("%-16s%12.1f", "regex", time(input, true)));
+        System.out.println(String.format("%-16s%12.1f", "NameNormalizer", time(input, false)));
+    }
+
+    private static String regex(String s) {
+        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+    }
+
+    /** Returns the median time in nanoseconds to clean one string. */
+    private static double time(String[] input, boolean useRegex) {
+        long[] samples = new long[TIMED_ROUNDS];
+        int sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            long begin = System.nanoTime();
+            for (String s : input) {
+                sink += (useRegex ? regex(s) : NameNormalizer.clean(s)).length();
+            }
+            if (round >= WARMUP_ROUNDS) {
+                samples[round - WARMUP_ROUNDS] = System.nanoTime() - begin;
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        Arrays.sort(samples);
+        return (double) samples[TIMED_ROUNDS / 2] / Math.max(1, input.length);
+    }
+}
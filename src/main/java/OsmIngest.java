@@ -0,0 +1,353 @@
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming, parallel reader of OSM XML files into a GraphDB. It builds the same graph as
+ * GraphBuildingHandler, but never holds nodes that no road uses.
+ *
+ * The file is read twice with a StAX reader. The first pass collects the ways and, from the
+ * allowed highways among them, the set of node ids the graph needs. The second pass keeps only
+ * those nodes plus named nodes, which become search locations. In both passes the reader
+ * thread only slices the XML into batches of raw attribute strings; a pool of workers parses
+ * the numbers, checks highway types and filters nodes. At most QUEUE_CAPACITY batches are in
+ * flight, so a slow pool holds back the reader rather than piling up memory, and results are
+ * applied to the graph in file order, so the graph does not depend on thread timing.
+ *
+ * Files whose name ends in .gz are decompressed on the fly.
+ */
+public class OsmIngest {
+    /** Elements per batch handed to a worker. */
+    static final int BATCH_SIZE = 4096;
+    /** Batches that may be parsed or waiting to be applied at any time. */
+    private static final int QUEUE_CAPACITY = 16;
+
+    private final String path;
+    private final GraphDB g;
+    private final ExecutorService workers;
+    private final int batchSize;
+    /** Allowed ways in file order, with their node ids and resolved names. */
+    private final List<long[]> wayRefs = new ArrayList<>();
+    private final List<String> wayNames = new ArrayList<>();
+    /** Ids of all nodes on allowed ways, sorted and distinct after the first pass. */
+    private long[] needed = new long[1024];
+    private int neededCount;
+    /** The name of the last way that had one; unnamed ways inherit it, as in the SAX handler. */
+    private String wayName;
+    /** Whether a node element follows a way element, so the second pass cannot stop early. */
+    private boolean nodesAfterWays;
+
+    private OsmIngest(String path, GraphDB g, ExecutorService workers, int batchSize) {
+        this.path = path;
+        this.g = g;
+        this.workers = workers;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reads an OSM file into g, using addNode, addName and addWay as the SAX handler would.
+     *
+     * @param path      Path to an .osm.xml or .osm.xml.gz file.
+     * @param g         The graph to fill.
+     * @param batchSize Elements per batch, normally BATCH_SIZE; tests use small batches to
+     *                  cover batch boundaries and back-pressure with small files.
+     */
+    static void read(String path, GraphDB g, int batchSize)
+            throws IOException, XMLStreamException {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-ingest");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            OsmIngest ingest = new OsmIngest(path, g, workers, batchSize);
+            ingest.readWays();
+            ingest.readNodes();
+            for (int i = 0; i < ingest.wayRefs.size(); i++) {
+                g.addWay(ingest.wayRefs.get(i), ingest.wayNames.get(i));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static InputStream open(String path) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+        return path.endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static XMLStreamReader reader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory.createXMLStreamReader(in);
+    }
+
+    /* First pass: ways. */
+
+    /** A way as read from the file, before any parsing. */
+    private static class RawWay {
+        private final List<String> refs = new ArrayList<>();
+        private final List<String> highways = new ArrayList<>(1);
+        private String name;
+    }
+
+    /** A parsed way; refs is null unless the way is an allowed highway. */
+    private static class ParsedWay {
+        private long[] refs;
+        private String name;
+    }
+
+    private void readWays() throws IOException, XMLStreamException {
+        Window<ParsedWay[]> window = new Window<>(this::applyWays);
+        try (InputStream in = open(path)) {
+            XMLStreamReader r = reader(in);
+            List<RawWay> batch = new ArrayList<>(batchSize);
+            RawWay way = null;
+            boolean seenWay = false;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = r.getLocalName();
+                    if (way != null) {
+                        if ("nd".equals(element)) {
+                            way.refs.add(r.getAttributeValue(null, "ref"));
+                        } else if ("tag".equals(element)) {
+                            String k = r.getAttributeValue(null, "k");
+                            if ("highway".equals(k)) {
+                                way.highways.add(r.getAttributeValue(null, "v"));
+                            } else if ("name".equals(k)) {
+                                way.name = r.getAttributeValue(null, "v");
+                            }
+                        }
+                    } else if ("way".equals(element)) {
+                        way = new RawWay();
+                        seenWay = true;
+                    } else if (seenWay && "node".equals(element)) {
+                        nodesAfterWays = true;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && way != null
+                        && "way".equals(r.getLocalName())) {
+                    batch.add(way);
+                    way = null;
+                    if (batch.size() == batchSize) {
+                        window.submit(parseWays(batch));
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            }
+            r.close();
+            window.submit(parseWays(batch));
+        }
+        window.drain();
+        Arrays.sort(needed, 0, neededCount);
+        int distinct = 0;
+        for (int i = 0; i < neededCount; i++) {
+            if (distinct == 0 || needed[i] != needed[distinct - 1]) {
+                needed[distinct++] = needed[i];
+            }
+        }
+        needed = Arrays.copyOf(needed, distinct);
+        neededCount = distinct;
+    }
+
+    private Future<ParsedWay[]> parseWays(List<RawWay> batch) {
+        return workers.submit(() -> {
+            ParsedWay[] parsed = new ParsedWay[batch.size()];
+            for (int i = 0; i < parsed.length; i++) {
+                RawWay raw = batch.get(i);
+                ParsedWay way = new ParsedWay();
+                way.name = raw.name;
+                for (String highway : raw.highways) {
+                    if (GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(highway)) {
+                        way.refs = new long[raw.refs.size()];
+                        for (int j = 0; j < way.refs.length; j++) {
+                            way.refs[j] = Long.parseLong(raw.refs.get(j));
+                        }
+                        break;
+                    }
+                }
+                parsed[i] = way;
+            }
+            return parsed;
+        });
+    }
+
+    /** Resolves way names in file order and records the allowed ways. */
+    private void applyWays(ParsedWay[] ways) {
+        for (ParsedWay way : ways) {
+            if (way.name != null) {
+                wayName = way.name;
+            }
+            if (way.refs == null || way.refs.length == 0) {
+                continue;
+            }
+            wayRefs.add(way.refs);
+            wayNames.add(wayName);
+            if (neededCount + way.refs.length > needed.length) {
+                needed = Arrays.copyOf(needed,
+                        Math.max(needed.length * 2, neededCount + way.refs.length));
+            }
+            System.arraycopy(way.refs, 0, needed, neededCount, way.refs.length);
+            neededCount += way.refs.length;
+        }
+    }
+
+    /* Second pass: nodes. */
+
+    /** Nodes of one batch as read from the file: id, lon, lat and name per node. */
+    private static class RawNodes {
+        private final String[] fields;
+        private int size;
+
+        RawNodes(int capacity) {
+            fields = new String[capacity * 4];
+        }
+    }
+
+    /** The nodes of a batch that the graph keeps. */
+    private static class ParsedNodes {
+        private final long[] ids;
+        private final double[] lons;
+        private final double[] lats;
+        private final String[] names;
+        private int size;
+
+        ParsedNodes(int capacity) {
+            ids = new long[capacity];
+            lons = new double[capacity];
+            lats = new double[capacity];
+            names = new String[capacity];
+        }
+    }
+
+    private void readNodes() throws IOException, XMLStreamException {
+        Window<ParsedNodes> window = new Window<>(this::applyNodes);
+        try (InputStream in = open(path)) {
+            XMLStreamReader r = reader(in);
+            RawNodes batch = new RawNodes(batchSize);
+            boolean inNode = false;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = r.getLocalName();
+                    if (inNode) {
+                        if ("tag".equals(element)
+                                && "name".equals(r.getAttributeValue(null, "k"))) {
+                            batch.fields[batch.size * 4 + 3] = r.getAttributeValue(null, "v");
+                        }
+                    } else if ("node".equals(element)) {
+                        inNode = true;
+                        int base = batch.size * 4;
+                        batch.fields[base] = r.getAttributeValue(null, "id");
+                        batch.fields[base + 1] = r.getAttributeValue(null, "lon");
+                        batch.fields[base + 2] = r.getAttributeValue(null, "lat");
+                        batch.fields[base + 3] = null;
+                    } else if ("way".equals(element) && !nodesAfterWays) {
+                        /* All nodes have been seen; the rest of the file is ways and relations. */
+                        break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && inNode
+                        && "node".equals(r.getLocalName())) {
+                    inNode = false;
+                    batch.size++;
+                    if (batch.size == batchSize) {
+                        window.submit(parseNodes(batch));
+                        batch = new RawNodes(batchSize);
+                    }
+                }
+            }
+            r.close();
+            window.submit(parseNodes(batch));
+        }
+        window.drain();
+    }
+
+    private Future<ParsedNodes> parseNodes(RawNodes batch) {
+        final long[] neededIds = needed;
+        return workers.submit(() -> {
+            ParsedNodes parsed = new ParsedNodes(batch.size);
+            for (int i = 0; i < batch.size; i++) {
+                int base = i * 4;
+                long id = Long.parseLong(batch.fields[base]);
+                String name = batch.fields[base + 3];
+                if (name == null && Arrays.binarySearch(neededIds, id) < 0) {
+                    continue;
+                }
+                int k = parsed.size++;
+                parsed.ids[k] = id;
+                parsed.lons[k] = Double.parseDouble(batch.fields[base + 1]);
+                parsed.lats[k] = Double.parseDouble(batch.fields[base + 2]);
+                parsed.names[k] = name;
+            }
+            return parsed;
+        });
+    }
+
+    private void applyNodes(ParsedNodes nodes) {
+        for (int i = 0; i < nodes.size; i++) {
+            g.addNode(nodes.ids[i], nodes.lons[i], nodes.lats[i]);
+            if (nodes.names[i] != null) {
+                g.addName(nodes.ids[i], nodes.lons[i], nodes.lats[i], nodes.names[i]);
+            }
+        }
+    }
+
+    /** Applies one parsed batch to the graph; runs on the reader thread. */
+    private interface Sink<T> {
+        void accept(T batch);
+    }
+
+    /**
+     * The bounded queue between the reader and the graph: batches enter as futures in file
+     * order, and once QUEUE_CAPACITY are pending, the reader waits for the oldest and applies
+     * it before reading on.
+     */
+    private static class Window<T> {
+        private final ArrayDeque<Future<T>> pending = new ArrayDeque<>(QUEUE_CAPACITY);
+        private final Sink<T> sink;
+
+        Window(Sink<T> sink) {
+            this.sink = sink;
+        }
+
+        void submit(Future<T> batch) throws IOException {
+            if (pending.size() == QUEUE_CAPACITY) {
+                applyOldest();
+            }
+            pending.add(batch);
+        }
+
+        void drain() throws IOException {
+            while (!pending.isEmpty()) {
+                applyOldest();
+            }
+        }
+
+        private void applyOldest() throws IOException {
+            try {
+                sink.accept(pending.poll().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading OSM data", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not parse OSM data", e.getCause());
+            }
+        }
+    }
+}
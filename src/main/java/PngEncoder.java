@@ -0,0 +1,363 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder for opaque rasters, writing 8-bit RGB with a chosen deflate level and row
+ * filter, where ImageIO always uses its own defaults.
+ *
+ * In parallel mode the rows are cut into stripes that are filtered and deflated on a shared
+ * pool, as pigz does: every stripe is a run of raw deflate blocks ended by a sync flush and
+ * primed with the last 32 KB of the stripe before it, so the stripes concatenate into one
+ * zlib stream. The stream's Adler-32 checksum is combined from those of the stripes.
+ */
+public class PngEncoder implements RasterEncoder {
+    static final int DEFAULT_LEVEL = 6;
+    static final Filter DEFAULT_FILTER = Filter.UP;
+    /** Rows per stripe in parallel mode. */
+    private static final int STRIPE_ROWS = 128;
+    /** Deflate's window; each stripe is primed with this much of the previous one. */
+    private static final int WINDOW = 32 * 1024;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final ExecutorService STRIPE_POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "png-stripe");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** The PNG row filters, plus ADAPTIVE, which picks the best filter per row. */
+    enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private final int level;
+    private final Filter filter;
+    private final boolean parallel;
+
+    /**
+     * @param level    The deflate level, from 0 (store) to 9 (smallest).
+     * @param filter   The row filter.
+     * @param parallel Whether to deflate row stripes in parallel.
+     */
+    public PngEncoder(int level, Filter filter, boolean parallel) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Deflate level must be in [0, 9]");
+        }
+        this.level = level;
+        this.filter = filter;
+        this.parallel = parallel;
+    }
+
+    @Override
+    public String spec() {
+        return (parallel ? "png-parallel:" : "png:") + level + ":"
+                + filter.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String mimeType() {
+        return "image/png";
+    }
+
+    @Override
+    public byte[] encode(BufferedImage img) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = rgbPixels(img);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(width * height + 1024);
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);
+        h.writeByte(2);
+        h.writeByte(0);
+        h.writeByte(0);
+        h.writeByte(0);
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(width * height + 1024);
+        if (parallel && height > STRIPE_ROWS) {
+            deflateStripes(pixels, width, height, data);
+        } else {
+            Deflater deflater = new Deflater(level);
+            try {
+                byte[] raw = filterRows(pixels, width, 0, height);
+                deflater.setInput(raw);
+                deflater.finish();
+                drain(deflater, Deflater.NO_FLUSH, data);
+            } finally {
+                deflater.end();
+            }
+        }
+        writeChunk(out, "IDAT", data.toByteArray(), data.size());
+        writeChunk(out, "IEND", new byte[0], 0);
+        return out.toByteArray();
+    }
+
+    /** Returns the pixels of img as 0xRRGGBB ints, without copying when they already are. */
+    private static int[] rgbPixels(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_INT_RGB
+                || img.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            if (data.length == img.getWidth() * img.getHeight()) {
+                return data;
+            }
+        }
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    /**
+     * Deflates the stripes on the pool and appends them, wrapped as one zlib stream, to data.
+     */
+    private void deflateStripes(int[] pixels, int width, int height,
+                                ByteArrayOutputStream data) throws IOException {
+        List<Future<Stripe>> stripes = new ArrayList<>();
+        for (int first = 0; first < height; first += STRIPE_ROWS) {
+            final int from = first;
+            final int to = Math.min(height, first + STRIPE_ROWS);
+            stripes.add(STRIPE_POOL.submit(() -> deflateStripe(pixels, width, from, to,
+                    to == height)));
+        }
+        /* zlib header: deflate with a 32 KB window, no dictionary, and the level hint. */
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        data.write(cmf);
+        data.write(flg);
+        long adler = 1;
+        try {
+            for (Future<Stripe> future : stripes) {
+                Stripe stripe = future.get();
+                data.write(stripe.deflated, 0, stripe.length);
+                adler = combineAdler32(adler, stripe.adler, stripe.rawLength);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding a raster", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not encode a raster", e.getCause());
+        }
+        data.write((int) (adler >>> 24));
+        data.write((int) (adler >>> 16));
+        data.write((int) (adler >>> 8));
+        data.write((int) adler);
+    }
+
+    /** A run of raw deflate blocks holding rows [from, to) of the filtered image. */
+    private static class Stripe {
+        private byte[] deflated;
+        private int length;
+        private long adler;
+        private long rawLength;
+    }
+
+    private Stripe deflateStripe(int[] pixels, int width, int from, int to, boolean last) {
+        int stride = width * 3 + 1;
+        byte[] raw = filterRows(pixels, width, from, to);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (from > 0) {
+                /* The filtered bytes of the rows just before this stripe, as the serial
+                 * stream would have them in its window. */
+                int primeRows = Math.min(from, (WINDOW + stride - 1) / stride);
+                byte[] prime = filterRows(pixels, width, from - primeRows, from);
+                int len = Math.min(WINDOW, prime.length);
+                deflater.setDictionary(prime, prime.length - len, len);
+            }
+            deflater.setInput(raw);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            drain(deflater, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH, out);
+            Adler32 adler = new Adler32();
+            adler.update(raw, 0, raw.length);
+            Stripe stripe = new Stripe();
+            stripe.deflated = out.toByteArray();
+            stripe.length = stripe.deflated.length;
+            stripe.adler = adler.getValue();
+            stripe.rawLength = raw.length;
+            return stripe;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Runs the deflater until it has consumed its input: to the end of the stream if it has
+     * been told to finish, else through a flush of the given mode.
+     */
+    private static void drain(Deflater deflater, int flush, ByteArrayOutputStream out) {
+        byte[] buf = new byte[64 * 1024];
+        if (flush == Deflater.NO_FLUSH) {
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return;
+        }
+        int n;
+        do {
+            n = deflater.deflate(buf, 0, buf.length, flush);
+            out.write(buf, 0, n);
+        } while (n == buf.length);
+    }
+
+    /** Returns rows [from, to) as PNG scanlines: a filter type byte, then RGB triples. */
+    byte[] filterRows(int[] pixels, int width, int from, int to) {
+        int stride = width * 3 + 1;
+        byte[] out = new byte[(to - from) * stride];
+        byte[] prev = new byte[width * 3];
+        byte[] cur = new byte[width * 3];
+        byte[][] candidates = filter == Filter.ADAPTIVE ? new byte[5][width * 3] : null;
+        if (from > 0) {
+            toRgb(pixels, width, from - 1, prev);
+        }
+        for (int y = from; y < to; y++) {
+            toRgb(pixels, width, y, cur);
+            int offset = (y - from) * stride;
+            if (filter == Filter.ADAPTIVE) {
+                int best = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int type = 0; type < 5; type++) {
+                    applyFilter(type, cur, prev, candidates[type], 0);
+                    long sum = absoluteSum(candidates[type]);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = type;
+                    }
+                }
+                out[offset] = (byte) best;
+                System.arraycopy(candidates[best], 0, out, offset + 1, width * 3);
+            } else {
+                int type = filter.ordinal();
+                out[offset] = (byte) type;
+                applyFilter(type, cur, prev, out, offset + 1);
+            }
+            byte[] swap = prev;
+            prev = cur;
+            cur = swap;
+        }
+        return out;
+    }
+
+    private static void toRgb(int[] pixels, int width, int y, byte[] row) {
+        int p = y * width;
+        for (int i = 0; i < row.length; i += 3) {
+            int rgb = pixels[p++];
+            row[i] = (byte) (rgb >> 16);
+            row[i + 1] = (byte) (rgb >> 8);
+            row[i + 2] = (byte) rgb;
+        }
+    }
+
+    /** Writes filter type's output for row cur, above which is prev, to out at offset. */
+    private static void applyFilter(int type, byte[] cur, byte[] prev, byte[] out, int offset) {
+        int n = cur.length;
+        switch (type) {
+            case 0:
+                System.arraycopy(cur, 0, out, offset, n);
+                break;
+            case 1:
+                for (int i = 0; i < n; i++) {
+                    int a = i < 3 ? 0 : cur[i - 3] & 0xff;
+                    out[offset + i] = (byte) (cur[i] - a);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < n; i++) {
+                    out[offset + i] = (byte) (cur[i] - prev[i]);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < n; i++) {
+                    int a = i < 3 ? 0 : cur[i - 3] & 0xff;
+                    out[offset + i] = (byte) (cur[i] - ((a + (prev[i] & 0xff)) >> 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int a = i < 3 ? 0 : cur[i - 3] & 0xff;
+                    int b = prev[i] & 0xff;
+                    int c = i < 3 ? 0 : prev[i - 3] & 0xff;
+                    out[offset + i] = (byte) (cur[i] - paeth(a, b, c));
+                }
+                break;
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /** The usual filter heuristic: the sum of the filtered bytes read as signed values. */
+    private static long absoluteSum(byte[] row) {
+        long sum = 0;
+        for (byte b : row) {
+            sum += Math.abs(b);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the Adler-32 of two byte sequences laid end to end, from their own checksums
+     * and the length of the second, as zlib's adler32_combine does.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = rem * sum1 % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data,
+                                   int length) throws IOException {
+        DataOutputStream d = new DataOutputStream(out);
+        d.writeInt(length);
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        d.write(typeBytes);
+        d.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        d.writeInt((int) crc.getValue());
+    }
+}
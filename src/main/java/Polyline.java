@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+/**
+ * The encoded polyline format of the Google Maps APIs at six decimal places (polyline6):
+ * coordinates rounded to 1e-6 degrees, each stored as the difference from the previous point
+ * in zigzag-encoded base-32 digits offset into printable ASCII. The usual five places would
+ * put vertices up to two pixels off at the deepest zoom, where a pixel is about 2.5e-6
+ * degrees. A route of a few hundred vertices takes a few kilobytes.
+ */
+public class Polyline {
+    private static final double SCALE = 1e6;
+
+    private Polyline() {
+    }
+
+    /**
+     * Encodes the points (lats[i], lons[i]) for i in [0, n).
+     */
+    public static String encode(double[] lats, double[] lons, int n) {
+        StringBuilder sb = new StringBuilder(n * 8);
+        long prevLat = 0;
+        long prevLon = 0;
+        for (int i = 0; i < n; i++) {
+            long lat = Math.round(lats[i] * SCALE);
+            long lon = Math.round(lons[i] * SCALE);
+            encodeValue(lat - prevLat, sb);
+            encodeValue(lon - prevLon, sb);
+            prevLat = lat;
+            prevLon = lon;
+        }
+        return sb.toString();
+    }
+
+    private static void encodeValue(long delta, StringBuilder sb) {
+        long v = delta < 0 ? ~(delta << 1) : delta << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+
+    /**
+     * Decodes a polyline into its latitudes and longitudes.
+     * @return An array of two arrays, the latitudes and the longitudes.
+     * @throws IllegalArgumentException If the string is not a whole number of points.
+     */
+    public static double[][] decode(String encoded) {
+        double[] lats = new double[encoded.length() / 2];
+        double[] lons = new double[encoded.length() / 2];
+        int n = 0;
+        int[] pos = {0};
+        long lat = 0;
+        long lon = 0;
+        while (pos[0] < encoded.length()) {
+            lat += decodeValue(encoded, pos);
+            lon += decodeValue(encoded, pos);
+            lats[n] = lat / SCALE;
+            lons[n] = lon / SCALE;
+            n++;
+        }
+        return new double[][]{Arrays.copyOf(lats, n), Arrays.copyOf(lons, n)};
+    }
+
+    private static long decodeValue(String encoded, int[] pos) {
+        long v = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= encoded.length()) {
+                throw new IllegalArgumentException("Truncated polyline");
+            }
+            b = encoded.charAt(pos[0]++) - 63;
+            v |= (long) (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        return (v & 1) != 0 ? ~(v >> 1) : v >> 1;
+    }
+}
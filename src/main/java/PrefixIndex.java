@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongFunction;
+
+/**
+ * The autocomplete index of location names: the distinct cleaned names in a sorted array,
+ * and the full names of the locations behind each one in a parallel flat array. The keys
+ * with a prefix form a contiguous range, found with two binary searches, so a query costs
+ * O(log n) string comparisons plus one step per result, and stops at a limit.
+ *
+ * Keys are also ranked by score, the number of locations sharing the cleaned name, for
+ * autocomplete. A sparse table gives the best key of any range of keys in two lookups, and
+ * the best k keys of a prefix range are found by repeatedly taking the best key of the best
+ * remaining sub-range from a heap, in O(k log k) however many keys share the prefix.
+ *
+ * Fuzzy search walks the sorted keys as the trie they flatten, computing one row of the
+ * Levenshtein table per character. Keys that share a prefix with the previous key reuse its
+ * rows, and once every entry of a row exceeds the distance allowed, the whole range of keys
+ * with that prefix is skipped with a binary search, as a Levenshtein automaton would. Only
+ * the diagonal band of each row that can stay within the distance is computed.
+ *
+ * Built once after the graph is loaded and never changed, so it can be shared by any number
+ * of request threads. It holds a few arrays, where the trie it replaced held a 256-slot
+ * child array per character of every name.
+ */
+public class PrefixIndex {
+    /** Sorts after every character a cleaned name can contain. */
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+
+    /** The distinct cleaned names, sorted. */
+    private final String[] keys;
+    /** The full names of the locations of keys[i] are names[offsets[i] .. offsets[i + 1]). */
+    private final int[] offsets;
+    private final String[] names;
+    /** best[j][i] is the best ranked of the 2^j keys starting at i. */
+    private final int[][] best;
+    private final int maxKeyLength;
+
+    /**
+     * @param ids    The ids of the locations of each cleaned name, in the order to return them.
+     * @param nameOf The full name of the location with an id.
+     */
+    public PrefixIndex(Map<String, ? extends List<Long>> ids, LongFunction<String> nameOf) {
+        keys = ids.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        offsets = new int[keys.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            offsets[i + 1] = offsets[i] + ids.get(keys[i]).size();
+        }
+        names = new String[offsets[keys.length]];
+        for (int i = 0; i < keys.length; i++) {
+            int k = offsets[i];
+            for (long id : ids.get(keys[i])) {
+                names[k++] = nameOf.apply(id);
+            }
+        }
+        int longest = 0;
+        for (String key : keys) {
+            longest = Math.max(longest, key.length());
+        }
+        maxKeyLength = longest;
+        int levels = keys.length == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(keys.length);
+        best = new int[levels][];
+        for (int j = 0; j < levels; j++) {
+            best[j] = new int[keys.length - (1 << j) + 1];
+            for (int i = 0; i < best[j].length; i++) {
+                best[j][i] = j == 0 ? i : better(best[j - 1][i], best[j - 1][i + (1 << j - 1)]);
+            }
+        }
+    }
+
+    /** The score of key i: the number of locations with that cleaned name. */
+    private int score(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /** Returns whichever of keys a and b ranks first: higher score, then lower index. */
+    private int better(int a, int b) {
+        int sa = score(a);
+        int sb = score(b);
+        return sa > sb || sa == sb && a < b ? a : b;
+    }
+
+    /** Returns the best ranked key of keys from to to - 1; the range must not be empty. */
+    private int bestIn(int from, int to) {
+        int j = 31 - Integer.numberOfLeadingZeros(to - from);
+        return better(best[j][from], best[j][to - (1 << j)]);
+    }
+
+    /**
+     * Returns the full names of the locations whose cleaned name starts with prefix, ordered
+     * by cleaned name, at most limit of them.
+     * @param prefix A cleaned prefix.
+     * @param limit  The most names to return.
+     */
+    public List<String> namesWithPrefix(String prefix, int limit) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + MAX_CHAR);
+        int end = (int) Math.min(offsets[to], (long) offsets[from] + Math.max(0, limit));
+        return new ArrayList<>(Arrays.asList(names).subList(offsets[from], end));
+    }
+
+    /**
+     * Returns the k best cleaned names starting with prefix, best first, each as the full
+     * name of its first location. Names shared by more locations rank higher; equally shared
+     * ones are in cleaned name order.
+     * @param prefix A cleaned prefix.
+     * @param k      The most names to return.
+     */
+    public List<String> topWithPrefix(String prefix, int k) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + MAX_CHAR);
+        List<String> top = new ArrayList<>(Math.max(0, Math.min(k, to - from)));
+        if (from == to || k <= 0) {
+            return top;
+        }
+        /* Disjoint ranges of keys not yet returned, as {from, to, best key}, best first. */
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                (a, b) -> a[2] == b[2] ? 0 : better(a[2], b[2]) == a[2] ? -1 : 1);
+        ranges.add(new int[]{from, to, bestIn(from, to)});
+        while (top.size() < k && !ranges.isEmpty()) {
+            int[] range = ranges.poll();
+            int i = range[2];
+            top.add(names[offsets[i]]);
+            if (range[0] < i) {
+                ranges.add(new int[]{range[0], i, bestIn(range[0], i)});
+            }
+            if (i + 1 < range[1]) {
+                ranges.add(new int[]{i + 1, range[1], bestIn(i + 1, range[1])});
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Returns the best cleaned names within maxDistance edits of query, each as the full
+     * name of its first location: closer names first, then as in topWithPrefix.
+     * @param query       A cleaned name.
+     * @param maxDistance The most insertions, deletions and substitutions allowed.
+     * @param k           The most names to return.
+     */
+    public List<String> fuzzyMatches(String query, int maxDistance, int k) {
+        List<List<Integer>> byDistance = new ArrayList<>();
+        for (int d = 0; d <= maxDistance; d++) {
+            byDistance.add(new ArrayList<>());
+        }
+        int m = query.length();
+        /* rows[j] is the Levenshtein row of query against the first j characters of a key. */
+        int[][] rows = new int[maxKeyLength + 1][m + 1];
+        for (int c = 0; c <= m; c++) {
+            rows[0][c] = c;
+        }
+        String previous = "";
+        /* How many rows past rows[0] hold the prefixes of previous. */
+        int valid = 0;
+        int i = 0;
+        scan:
+        while (i < keys.length) {
+            String key = keys[i];
+            int j = Math.min(valid, commonPrefixLength(previous, key));
+            for (; j < key.length(); j++) {
+                int[] above = rows[j];
+                int[] row = rows[j + 1];
+                char ch = key.charAt(j);
+                /* Entries outside the band exceed maxDistance; they are read as maxDistance + 1. */
+                int lo = Math.max(1, j + 1 - maxDistance);
+                int hi = Math.min(m, j + 1 + maxDistance);
+                row[0] = j + 1;
+                int min = row[0];
+                if (lo > 1) {
+                    min = maxDistance + 1;
+                    if (lo <= m + 1) {
+                        row[lo - 1] = min;
+                    }
+                }
+                for (int c = lo; c <= hi; c++) {
+                    int cost = query.charAt(c - 1) == ch ? 0 : 1;
+                    row[c] = Math.min(Math.min(row[c - 1], above[c]) + 1, above[c - 1] + cost);
+                    min = Math.min(min, row[c]);
+                }
+                if (hi < m) {
+                    row[hi + 1] = maxDistance + 1;
+                }
+                if (min > maxDistance) {
+                    /* No key starting with these j + 1 characters can come close enough. */
+                    previous = key;
+                    valid = j;
+                    i = endOfPrefix(i, key, j + 1);
+                    continue scan;
+                }
+            }
+            int distance = Math.abs(key.length() - m) > maxDistance ? maxDistance + 1
+                    : rows[key.length()][m];
+            if (distance <= maxDistance) {
+                byDistance.get(distance).add(i);
+            }
+            previous = key;
+            valid = key.length();
+            i++;
+        }
+
+        List<String> matches = new ArrayList<>();
+        for (List<Integer> keysAt : byDistance) {
+            keysAt.sort((a, b) -> a.equals(b) ? 0 : better(a, b) == a ? -1 : 1);
+            for (int key : keysAt) {
+                if (matches.size() >= k) {
+                    return matches;
+                }
+                matches.add(names[offsets[key]]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the index of the first key after from that does not start with the first
+     * length characters of key, which keys[from] starts with. Gallops from from, since the
+     * keys skipped are usually few.
+     */
+    private int endOfPrefix(int from, String key, int length) {
+        int lo = from;
+        int step = 1;
+        while (from + step < keys.length && keys[from + step].regionMatches(0, key, 0, length)) {
+            lo = from + step;
+            step <<= 1;
+        }
+        int hi = Math.min(keys.length, from + step);
+        /* keys[lo] has the prefix and keys[hi], if any, does not. */
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].regionMatches(0, key, 0, length)) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return hi;
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Returns the index of the first key not less than key. */
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** The number of distinct cleaned names. */
+    public int size() {
+        return keys.length;
+    }
+}
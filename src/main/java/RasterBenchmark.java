@@ -0,0 +1,110 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class provides a main method that runs the raster queries in raster_params.txt
+ * through the JSON /raster response and the binary /raster.png response, and prints the
+ * bytes per response and the bytes allocated per response of each, once with every raster
+ * rendered afresh and once with the rasters already cached.
+ * Usage: RasterBenchmark [params file]
+ */
+public class RasterBenchmark {
+    private static final String PARAMS_FILE = "raster_params.txt";
+    /** Untimed passes over the workload, so both responses run JIT-compiled code. */
+    private static final int WARMUP_ROUNDS = 3;
+    /** Measured passes; allocation is averaged over all of them. */
+    private static final int ROUNDS = 5;
+    private static final RasterEncoder ENCODER =
+            RasterEncoder.forName(RasterEncoder.DEFAULT_SPEC);
+
+    public static void main(String[] args) throws Exception {
+        String paramsPath = args.length > 0 ? args[0] : PARAMS_FILE;
+        MapServer.initialize();
+        List<Map<String, Double>> queries = readQueries(paramsPath);
+
+        long jsonBytes = 0;
+        long pngBytes = 0;
+        for (Map<String, Double> q : queries) {
+            jsonBytes += MapServer.rasterJson(q, ENCODER, false)
+                    .getBytes(StandardCharsets.UTF_8).length;
+            byte[] png = MapServer.rasterImage(q, ENCODER, false, new HashMap<>());
+            pngBytes += png == null ? 0 : png.length;
+        }
+        System.out.println(String.format("%-10s%16s%20s%20s", "response", "bytes/resp",
+                "alloc/resp uncached", "alloc/resp cached"));
+        print("json", jsonBytes / queries.size(), measure(queries, true, false),
+                measure(queries, true, true));
+        print("png", pngBytes / queries.size(), measure(queries, false, false),
+                measure(queries, false, true));
+    }
+
+    /** Returns the mean bytes allocated by this thread per response. */
+    private static long measure(List<Map<String, Double>> queries, boolean json,
+                                boolean cached) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            run(queries, json, cached);
+        }
+        long allocated = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            allocated += run(queries, json, cached);
+        }
+        return allocated / ((long) ROUNDS * queries.size());
+    }
+
+    private static long run(List<Map<String, Double>> queries, boolean json, boolean cached) {
+        long allocated = 0;
+        for (Map<String, Double> q : queries) {
+            if (!cached) {
+                MapServer.clearCaches();
+            }
+            long before = allocatedBytes();
+            if (json) {
+                /* The string is what Spark encodes into the response stream. */
+                MapServer.rasterJson(q, ENCODER, false).getBytes(StandardCharsets.UTF_8);
+            } else {
+                MapServer.rasterImage(q, ENCODER, false, new HashMap<>());
+            }
+            allocated += allocatedBytes() - before;
+        }
+        return allocated;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void print(String name, long bytes, long uncached, long cached) {
+        System.out.println(String.format("%-10s%16d%20d%20d", name, bytes, uncached, cached));
+    }
+
+    /** Reads raster queries, six lines of numbers each, skipping # comment lines. */
+    static List<Map<String, Double>> readQueries(String path) throws Exception {
+        List<Map<String, Double>> queries = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), Charset.defaultCharset())) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                values.add(Double.parseDouble(line));
+            }
+        }
+        for (int i = 0; i + 6 <= values.size(); i += 6) {
+            Map<String, Double> q = new HashMap<>();
+            q.put("ullon", values.get(i));
+            q.put("ullat", values.get(i + 1));
+            q.put("lrlon", values.get(i + 2));
+            q.put("lrlat", values.get(i + 3));
+            q.put("w", values.get(i + 4));
+            q.put("h", values.get(i + 5));
+            queries.add(q);
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,133 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Encodes composed rasters into image bytes for the front end.
+ *
+ * Encoders are named by a spec string, which is also part of the raster cache key:
+ * <ul>
+ *     <li>imageio: PNG through ImageIO with its default settings.</li>
+ *     <li>png[:level[:filter]]: PngEncoder with a deflate level of 0 to 9 and a row filter
+ *     of none, sub, up, average, paeth or adaptive.</li>
+ *     <li>png-parallel[:level[:filter]]: the same PNG, with row stripes deflated in
+ *     parallel.</li>
+ *     <li>jpeg[:quality]: JPEG through ImageIO, with a quality of 0 to 1.</li>
+ * </ul>
+ */
+public interface RasterEncoder {
+    /** The encoder used when a request does not name one; set with -DrasterEncoder=spec. */
+    String DEFAULT_SPEC = System.getProperty("rasterEncoder", "imageio");
+
+    /** The canonical spec of this encoder; forName(spec()) gives an equal encoder. */
+    String spec();
+
+    /** The MIME type of the encoded image. */
+    String mimeType();
+
+    byte[] encode(BufferedImage img) throws IOException;
+
+    /**
+     * Returns the encoder named by spec.
+     * @throws IllegalArgumentException If spec names no encoder or has bad settings.
+     */
+    static RasterEncoder forName(String spec) {
+        String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":");
+        try {
+            switch (parts[0]) {
+                case "imageio":
+                    if (parts.length == 1) {
+                        return new ImageIoPng();
+                    }
+                    break;
+                case "png":
+                case "png-parallel":
+                    if (parts.length <= 3) {
+                        int level = parts.length > 1 ? Integer.parseInt(parts[1])
+                                : PngEncoder.DEFAULT_LEVEL;
+                        PngEncoder.Filter filter = parts.length > 2
+                                ? PngEncoder.Filter.valueOf(parts[2].toUpperCase(Locale.ROOT))
+                                : PngEncoder.DEFAULT_FILTER;
+                        return new PngEncoder(level, filter, parts[0].equals("png-parallel"));
+                    }
+                    break;
+                case "jpeg":
+                    if (parts.length <= 2) {
+                        return new ImageIoJpeg(parts.length > 1
+                                ? Float.parseFloat(parts[1]) : ImageIoJpeg.DEFAULT_QUALITY);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad raster encoder: " + spec, e);
+        }
+        throw new IllegalArgumentException("Bad raster encoder: " + spec);
+    }
+
+    /** PNG through ImageIO, as the server always encoded rasters before. */
+    class ImageIoPng implements RasterEncoder {
+        @Override
+        public String spec() {
+            return "imageio";
+        }
+
+        @Override
+        public String mimeType() {
+            return "image/png";
+        }
+
+        @Override
+        public byte[] encode(BufferedImage img) throws IOException {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", os);
+            return os.toByteArray();
+        }
+    }
+
+    /** Lossy JPEG through ImageIO; much smaller and faster than PNG, but blurs labels. */
+    class ImageIoJpeg implements RasterEncoder {
+        static final float DEFAULT_QUALITY = 0.85f;
+        private final float quality;
+
+        ImageIoJpeg(float quality) {
+            if (!(quality >= 0 && quality <= 1)) {
+                throw new IllegalArgumentException("JPEG quality must be in [0, 1]");
+            }
+            this.quality = quality;
+        }
+
+        @Override
+        public String spec() {
+            return "jpeg:" + quality;
+        }
+
+        @Override
+        public String mimeType() {
+            return "image/jpeg";
+        }
+
+        @Override
+        public byte[] encode(BufferedImage img) throws IOException {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(os)) {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(img, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            return os.toByteArray();
+        }
+    }
+}
@@ -8,14 +8,15 @@ import java.util.Map;
  * not draw the output correctly.
  */
 public class Rasterer {
-    private static final double root_ullon = MapServer.ROOT_ULLON;
-    private static final double root_lrlon = MapServer.ROOT_LRLON;
-    private static final double root_ullat = MapServer.ROOT_ULLAT;
-    private static final double root_lrlat = MapServer.ROOT_LRLAT;
-    private static final double tile_size = MapServer.TILE_SIZE;
-    private static boolean query_success = true;
+    private final TilePyramid pyramid;
 
+    /** A rasterer over the Berkeley tiles, as configured by TilePyramid.fromProperties(). */
     public Rasterer() {
+        this(TilePyramid.fromProperties());
+    }
+
+    public Rasterer(TilePyramid pyramid) {
+        this.pyramid = pyramid;
     }
 
     /**
@@ -49,6 +50,18 @@ public class Rasterer {
 
 
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
+        return getMapRaster(params, false);
+    }
+
+    /**
+     * Like getMapRaster(params), but in tile mode the render_grid holds the server paths of
+     * the tiles, tiles/{depth}/{x}/{y}.png, so that a client can fetch and cache each tile
+     * itself instead of receiving one rastered image.
+     * @param params   Map of the HTTP GET request's query parameters.
+     * @param tileMode Whether to return tile paths rather than tile file names.
+     * @return A map of results with the same fields as getMapRaster(params).
+     */
+    public Map<String, Object> getMapRaster(Map<String, Double> params, boolean tileMode) {
         // System.out.println(params);
         Map<String, Object> results = new HashMap<>();
 
@@ -58,35 +71,34 @@ public class Rasterer {
         double ullat = params.get("ullat");
         double lrlat = params.get("lrlat");
         double width = params.get("w");
-        int depth = findDepth((lrlon - ullon)/width);
+        int depth = pyramid.depthFor((lrlon - ullon) / width);
 
         /*Find the indices of pictures returned*/
-        double picWidth = (root_lrlon - root_ullon) / Math.pow(2, depth);
-        double picHeight = (root_ullat - root_lrlat) / Math.pow(2, depth);
-
-        int ul_lon_index = (int) Math.floor((ullon - root_ullon) / picWidth);
-        int lr_lon_index = (int) Math.floor((lrlon - root_ullon) / picWidth);
-        int ul_lat_index = (int) Math.floor((root_ullat - ullat) / picHeight);
-        int lr_lat_index = (int) Math.floor((root_ullat - lrlat) / picHeight);
+        int ul_lon_index = pyramid.column(depth, ullon);
+        int lr_lon_index = pyramid.column(depth, lrlon);
+        int ul_lat_index = pyramid.row(depth, ullat);
+        int lr_lat_index = pyramid.row(depth, lrlat);
 
-        /* Fill the render_grid with strings of pictures.*/
+        /* Fill the render_grid with the names of pictures, looked up rather than built.*/
         String[][] render_grid = new String[lr_lat_index - ul_lat_index + 1][lr_lon_index - ul_lon_index + 1];
-        for (int i = 0; i < lr_lat_index - ul_lat_index + 1; i++){
-            for (int j = 0; j < lr_lon_index - ul_lon_index + 1; j++){
-                render_grid[i][j] = "d" + depth + "_x" + (j + ul_lon_index) + "_y" + (i + ul_lat_index) + ".png";
+        for (int i = 0; i < render_grid.length; i++) {
+            String[] row = render_grid[i];
+            for (int j = 0; j < row.length; j++) {
+                int x = j + ul_lon_index;
+                int y = i + ul_lat_index;
+                row[j] = tileMode ? "tiles/" + depth + "/" + x + "/" + y + ".png"
+                        : pyramid.fileName(depth, x, y);
             }
         }
 
         /* Find the four bounding corners*/
-        double raster_ul_lon = root_ullon + ul_lon_index * picWidth;
-        double raster_lr_lon = root_ullon + (lr_lon_index + 1) * picWidth;
-        double raster_ul_lat = root_ullat - ul_lat_index * picHeight;
-        double raster_lr_lat = root_ullat - (lr_lat_index + 1) * picHeight;
+        double raster_ul_lon = pyramid.lonOf(depth, ul_lon_index);
+        double raster_lr_lon = pyramid.lonOf(depth, lr_lon_index + 1);
+        double raster_ul_lat = pyramid.latOf(depth, ul_lat_index);
+        double raster_lr_lat = pyramid.latOf(depth, lr_lat_index + 1);
 
         /*Check boundary.*/
-        if ((ullon >= root_lrlon) || (lrlon <= root_ullon) || (ullat <= root_lrlat) || (lrlat >= root_ullat) || (ullon > lrlon) || (ullat < lrlat)){
-            query_success = false;
-        }
+        boolean query_success = pyramid.overlaps(ullon, ullat, lrlon, lrlat);
 
         /* Put query results into the results map.*/
         results.put("render_grid", render_grid);
@@ -100,11 +112,4 @@ public class Rasterer {
         return results;
     }
 
-    /* Find the depth of the query.*/
-    private int findDepth(double query_lonDPP){
-        double depth_exact = Math.log((root_lrlon - root_ullon)/(query_lonDPP * tile_size)) / Math.log(2);
-        int depth = (int) Math.min((int) Math.ceil(depth_exact), 7);
-        return depth;
-    }
-
 }
@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A route simplified for every depth of a tile pyramid with Douglas-Peucker, so that each
+ * depth draws only the vertices that move the line by at least TOLERANCE_PX pixels there.
+ *
+ * Simplification runs once per route. Each vertex gets a significance: the distance, in
+ * pixels at depth 0, at which Douglas-Peucker stops keeping it. Capping it by the
+ * significance of the vertex that split its range nests the results, so that the vertices
+ * of any depth are those whose significance exceeds the tolerance scaled to that depth, the
+ * same set Douglas-Peucker itself would keep.
+ */
+public class RouteGeometry {
+    /** How far, in pixels, a dropped vertex may lie from the simplified line. */
+    static final double TOLERANCE_PX = 0.5;
+
+    private final double[][] lats;
+    private final double[][] lons;
+    private final List<String> polylines;
+
+    /**
+     * @param lats    The latitudes of the route vertices, in order.
+     * @param lons    The longitudes of the route vertices, in order.
+     * @param pyramid The depths and scales to simplify for.
+     */
+    public RouteGeometry(double[] lats, double[] lons, TilePyramid pyramid) {
+        int n = lats.length;
+        double sx = 1 / pyramid.lonDPP(0);
+        double sy = 1 / pyramid.latDPP(0);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = lons[i] * sx;
+            y[i] = lats[i] * sy;
+        }
+        double[] significance = significance(x, y);
+
+        int depths = pyramid.maxDepth() + 1;
+        this.lats = new double[depths][];
+        this.lons = new double[depths][];
+        List<String> encoded = new ArrayList<>(depths);
+        for (int d = 0; d < depths; d++) {
+            double tolerance = TOLERANCE_PX * pyramid.lonDPP(d) / pyramid.lonDPP(0);
+            int kept = 0;
+            for (double s : significance) {
+                if (s > tolerance) {
+                    kept++;
+                }
+            }
+            double[] dLats = new double[kept];
+            double[] dLons = new double[kept];
+            for (int i = 0, k = 0; i < n; i++) {
+                if (significance[i] > tolerance) {
+                    dLats[k] = lats[i];
+                    dLons[k] = lons[i];
+                    k++;
+                }
+            }
+            this.lats[d] = dLats;
+            this.lons[d] = dLons;
+            encoded.add(Polyline.encode(dLats, dLons, kept));
+        }
+        polylines = Collections.unmodifiableList(encoded);
+    }
+
+    /**
+     * Returns the Douglas-Peucker significance of each point of the line through (x, y):
+     * infinite for the end points, and for the others the distance from the segment that
+     * split them off, capped by the significance of the point that split that segment.
+     */
+    static double[] significance(double[] x, double[] y) {
+        int n = x.length;
+        double[] significance = new double[n];
+        if (n == 0) {
+            return significance;
+        }
+        significance[0] = Double.POSITIVE_INFINITY;
+        significance[n - 1] = Double.POSITIVE_INFINITY;
+        /* Ranges still to split, as first, last and the cap of their points, kept on a stack
+         * rather than by recursion, since routes can have thousands of vertices. */
+        int[] ranges = new int[2 * n];
+        double[] caps = new double[n];
+        int top = 0;
+        if (n > 2) {
+            ranges[0] = 0;
+            ranges[1] = n - 1;
+            caps[0] = Double.POSITIVE_INFINITY;
+            top = 1;
+        }
+        while (top > 0) {
+            top--;
+            int first = ranges[2 * top];
+            int last = ranges[2 * top + 1];
+            double cap = caps[top];
+            int split = first + 1;
+            double max = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d > max) {
+                    max = d;
+                    split = i;
+                }
+            }
+            double s = Math.min(max, cap);
+            significance[split] = s;
+            if (split - first > 1) {
+                ranges[2 * top] = first;
+                ranges[2 * top + 1] = split;
+                caps[top] = s;
+                top++;
+            }
+            if (last - split > 1) {
+                ranges[2 * top] = split;
+                ranges[2 * top + 1] = last;
+                caps[top] = s;
+                top++;
+            }
+        }
+        return significance;
+    }
+
+    /** Returns the distance from (px, py) to the segment from (ax, ay) to (bx, by). */
+    static double segmentDistance(double px, double py, double ax, double ay, double bx,
+                                  double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        }
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    /** The number of depths the route is simplified for. */
+    public int depths() {
+        return lats.length;
+    }
+
+    /** Returns the latitudes of the vertices drawn at depth; must not be modified. */
+    public double[] lats(int depth) {
+        return lats[depth];
+    }
+
+    /** Returns the longitudes of the vertices drawn at depth; must not be modified. */
+    public double[] lons(int depth) {
+        return lons[depth];
+    }
+
+    /** Returns the encoded polylines of the route, indexed by depth. */
+    public List<String> polylines() {
+        return polylines;
+    }
+}
@@ -11,6 +11,47 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /** The search algorithms shortestPath can run. */
+    public enum Mode {
+        /** Single-direction A* with the great-circle heuristic. */
+        ASTAR,
+        /** A* from both ends at once, with symmetric great-circle potentials. */
+        BIDIRECTIONAL,
+        /** Bidirectional upward search over the graph's contraction hierarchy. */
+        CH,
+        /** A* with the larger of the landmark and great-circle lower bounds. */
+        ALT;
+
+        /**
+         * Parses a mode name as given in a request, ignoring case.
+         * @param name The mode name, or null for the default mode.
+         * @return The mode.
+         * @throws IllegalArgumentException If there is no mode with that name.
+         */
+        public static Mode fromString(String name) {
+            if (name == null || name.isEmpty()) {
+                return ASTAR;
+            }
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** Work done by one shortestPath call, filled in when a caller asks for it. */
+    public static class SearchStats {
+        /** Number of vertices removed from the frontier for the first time. */
+        int settled;
+        /** Wall clock time of the search, including the closest-vertex lookups. */
+        long nanos;
+
+        public int settled() {
+            return settled;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+    }
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
@@ -23,67 +64,69 @@ public class Router {
      * @param destlat The latitude of the destination location.
      * @return A list of node id's in the order visited on the shortest path.
      */
-
-    private static GraphDB.Node start;
-    private static GraphDB.Node destination;
-    private static class routerNode implements Comparable<routerNode>{
-        public long id;
-        public routerNode pre;
-        public double priority;
-        public double distFromStart;
-        public routerNode(Long id, routerNode pre, double distFromStart){
-            this.id = id;
-            this.pre = pre;
-            this.distFromStart = distFromStart;
-            this.priority = distFromStart + distToDest(id);
-        }
-        @Override
-        public int compareTo(routerNode v){
-//            return (int) (this.priority - v.priority);
-            if (this.priority < v.priority) {
-                return -1;
-            }
-            if (this.priority > v.priority) {
-                return 1;
-            }
-            return 0;
-        }
-    }
-    private static double distToDest(long id){
-        return GraphDB.distance(GraphDB.lon(id), GraphDB.lat(id), destination.lon, destination.lat);
-    }
-    private static boolean isGoal(routerNode v){
-        return distToDest(v.id) == 0;
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, Mode.ASTAR, null);
     }
 
+    /**
+     * Like {@link #shortestPath(GraphDB, double, double, double, double)}, using the given
+     * search algorithm.
+     */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
-                                          double destlon, double destlat) {
+                                          double destlon, double destlat, Mode mode) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, mode, null);
+    }
 
-        start = g.nodes.get(g.closest(stlon, stlat));
-        destination = g.nodes.get(g.closest(destlon, destlat));
-        PriorityQueue<routerNode> pq = new PriorityQueue<>();
-        Map<Long, Boolean> visited = new HashMap<>();
-        pq.add(new routerNode(start.id, null, 0));
-        while (!isGoal(pq.peek())){
-            routerNode minNode = pq.poll();
-            visited.put(minNode.id, true);
-            for (long neighborId : g.adjacent(minNode.id)){
-                if ((!visited.containsKey(neighborId))){
-                    pq.add(new routerNode(neighborId, minNode, minNode.distFromStart + GraphDB.distance(neighborId, minNode.id)));
-                }
+    /**
+     * Like {@link #shortestPath(GraphDB, double, double, double, double)}, using the given
+     * search algorithm and reporting the work it did.
+     *
+     * @param mode  The search algorithm to run.
+     * @param stats Receives the settled vertex count and the latency; may be null.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Mode mode,
+                                          SearchStats stats) {
+        long begin = System.nanoTime();
+        long start = g.closest(stlon, stlat);
+        long destination = g.closest(destlon, destlat);
+        List<Long> path;
+        int settled;
+        if (mode == Mode.BIDIRECTIONAL) {
+            CompactGraph c = g.compact();
+            BidirectionalSearch search = g.bidirectionalSearch();
+            int length = search.search(c.checkedIndexOf(start), c.checkedIndexOf(destination));
+            path = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                path.add(c.idAt(search.pathVertex(i)));
             }
+            settled = search.settled();
+        } else if (mode == Mode.CH) {
+            CompactGraph c = g.compact();
+            CHSearch search = g.chSearch();
+            int length = search.search(c.checkedIndexOf(start), c.checkedIndexOf(destination));
+            path = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                path.add(c.idAt(search.pathVertex(i)));
+            }
+            settled = search.settled();
+        } else {
+            CompactGraph c = g.compact();
+            AStarSearch search = g.search();
+            int length = search.search(c.checkedIndexOf(start), c.checkedIndexOf(destination),
+                    mode == Mode.ALT ? g.landmarks() : null);
+            path = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                path.add(c.idAt(search.pathVertex(i)));
+            }
+            settled = search.settled();
         }
-        Stack<routerNode> solution = new Stack<>();
-        List<Long> solutions = new LinkedList<>();
-        routerNode Node = pq.peek();
-        while (Node != null){
-            solution.push(Node);
-            Node = Node.pre;
-        }
-        while (!solution.isEmpty()){
-            solutions.add(solution.pop().id);
+        if (stats != null) {
+            stats.settled = settled;
+            stats.nanos = System.nanoTime() - begin;
         }
-        return solutions;
+        return path;
     }
 
         /**
@@ -106,12 +149,12 @@ public class Router {
                 double currBearing = g.bearing(preNode, currNode);
                 double relativeBearing = currBearing - preBearing;
                 if ((g.getWayNames(currNode).contains(currWayName)) && (i != route.size() - 1)){
-                    distance += GraphDB.distance(preNode, currNode);
+                    distance += g.distance(preNode, currNode);
                     preBearing = currBearing;
                     continue;
                 }
                 if (i != route.size() - 1){
-                    distance += GraphDB.distance(preNode, currNode);
+                    distance += g.distance(preNode, currNode);
                 }
                 NavigationDirection nd = new NavigationDirection();
                 nd.direction = currDirection;
@@ -120,7 +163,7 @@ public class Router {
                 directions.add(nd);
                 currWayName = CurrWayName(g, preNode, currNode);
                 currDirection = getDirection(relativeBearing);
-                distance = GraphDB.distance(preNode, currNode);
+                distance = g.distance(preNode, currNode);
             }
             return directions;
         }
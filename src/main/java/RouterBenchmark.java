@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class provides a main method that runs the route queries in path_params.txt with
+ * every Router search mode and prints settled vertex counts and latencies side by side.
+ * An optional comma-separated list of landmark counts additionally reruns the ALT mode
+ * with each count and prints the total settled vertices and latency per count.
+ * Usage: RouterBenchmark [osm file] [params file] [landmark counts]
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String PARAMS_FILE = "path_params.txt";
+    /** Untimed passes over the workload, so every mode runs JIT-compiled code. */
+    private static final int WARMUP_ROUNDS = 5;
+    /** Timed passes; the median latency of each query is reported. */
+    private static final int TIMED_ROUNDS = 9;
+
+    public static void main(String[] args) throws IOException {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String paramsPath = args.length > 1 ? args[1] : PARAMS_FILE;
+        GraphDB g = new GraphDB(osmPath);
+        List<double[]> queries = readQueries(paramsPath);
+        Router.Mode[] modes = Router.Mode.values();
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (Router.Mode mode : modes) {
+                for (double[] q : queries) {
+                    Router.shortestPath(g, q[0], q[1], q[2], q[3], mode);
+                }
+            }
+        }
+
+        int[][] settled = new int[modes.length][queries.size()];
+        long[][] nanos = new long[modes.length][queries.size()];
+        int mismatches = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            double[] q = queries.get(i);
+            List<Long> reference = null;
+            for (int m = 0; m < modes.length; m++) {
+                long[] samples = new long[TIMED_ROUNDS];
+                Router.SearchStats stats = new Router.SearchStats();
+                List<Long> path = null;
+                for (int r = 0; r < TIMED_ROUNDS; r++) {
+                    path = Router.shortestPath(g, q[0], q[1], q[2], q[3], modes[m], stats);
+                    samples[r] = stats.nanos();
+                }
+                Arrays.sort(samples);
+                settled[m][i] = stats.settled();
+                nanos[m][i] = samples[TIMED_ROUNDS / 2];
+                if (reference == null) {
+                    reference = path;
+                } else if (!reference.equals(path)) {
+                    System.out.println("Query " + i + ": " + modes[m] + " found a different path");
+                    mismatches++;
+                }
+            }
+        }
+        print(modes, settled, nanos);
+        System.out.println(mismatches == 0 ? "All modes returned identical paths."
+                : mismatches + " path mismatches.");
+        if (args.length > 2) {
+            sweepLandmarks(g, queries, args[2].split(","));
+        }
+    }
+
+    /** Reruns the ALT mode with each landmark count, after selection has been redone. */
+    private static void sweepLandmarks(GraphDB g, List<double[]> queries, String[] counts) {
+        System.out.println(String.format("%-10s%16s%16s%12s", "landmarks", "select ms",
+                "ALT settled", "ALT ms"));
+        for (String count : counts) {
+            long begin = System.nanoTime();
+            g.selectLandmarks(Integer.parseInt(count.trim()));
+            long selectNanos = System.nanoTime() - begin;
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                for (double[] q : queries) {
+                    Router.shortestPath(g, q[0], q[1], q[2], q[3], Router.Mode.ALT);
+                }
+            }
+            long settled = 0;
+            long nanos = 0;
+            Router.SearchStats stats = new Router.SearchStats();
+            for (double[] q : queries) {
+                long[] samples = new long[TIMED_ROUNDS];
+                for (int r = 0; r < TIMED_ROUNDS; r++) {
+                    Router.shortestPath(g, q[0], q[1], q[2], q[3], Router.Mode.ALT, stats);
+                    samples[r] = stats.nanos();
+                }
+                Arrays.sort(samples);
+                settled += stats.settled();
+                nanos += samples[TIMED_ROUNDS / 2];
+            }
+            System.out.println(String.format("%-10s%16.1f%16d%12.3f", count.trim(),
+                    selectNanos / 1e6, settled, nanos / 1e6));
+        }
+    }
+
+    private static void print(Router.Mode[] modes, int[][] settled, long[][] nanos) {
+        StringBuilder header = new StringBuilder(String.format("%-6s", "query"));
+        for (Router.Mode mode : modes) {
+            header.append(String.format("%24s%20s", mode + " settled", mode + " ms"));
+        }
+        System.out.println(header);
+        long[] settledTotal = new long[modes.length];
+        long[] nanosTotal = new long[modes.length];
+        for (int i = 0; i < settled[0].length; i++) {
+            StringBuilder row = new StringBuilder(String.format("%-6d", i));
+            for (int m = 0; m < modes.length; m++) {
+                row.append(String.format("%24d%20.3f", settled[m][i], nanos[m][i] / 1e6));
+                settledTotal[m] += settled[m][i];
+                nanosTotal[m] += nanos[m][i];
+            }
+            System.out.println(row);
+        }
+        StringBuilder total = new StringBuilder(String.format("%-6s", "total"));
+        for (int m = 0; m < modes.length; m++) {
+            total.append(String.format("%24d%20.3f", settledTotal[m], nanosTotal[m] / 1e6));
+        }
+        System.out.println(total);
+    }
+
+    /** Reads start/end coordinates in the format of path_params.txt. */
+    private static List<double[]> readQueries(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), Charset.defaultCharset());
+        List<double[]> queries = new ArrayList<>();
+        int lineIdx = 0;
+        while (lineIdx < lines.size() && lines.get(lineIdx).startsWith("#")) {
+            lineIdx++;
+        }
+        for (; lineIdx + 3 < lines.size(); lineIdx += 4) {
+            double[] q = new double[4];
+            for (int j = 0; j < 4; j++) {
+                q[j] = Double.parseDouble(lines.get(lineIdx + j).trim());
+            }
+            queries.add(q);
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,141 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Composes a grid of tiles into one raster, fetching and decoding the tiles in parallel and
+ * copying their pixels straight into the raster's int array.
+ *
+ * All requests share one fixed pool, so concurrent requests never run more tile threads than
+ * the pool has. A request hands out its tiles through a counter: the request thread works
+ * through them itself and asks up to parallelism - 1 pool threads to help. When the pool is
+ * busy with other requests the helpers start late or find nothing left, and the request
+ * degrades to the serial loop instead of queueing behind other requests.
+ */
+public class TileCompositor {
+    private final ExecutorService pool;
+    private final int parallelism;
+
+    /**
+     * @param threads The number of pool threads, shared by all requests.
+     */
+    public TileCompositor(int threads) {
+        this.parallelism = Math.max(1, threads);
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "tile-compositor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Draws the tile named by each grid cell into dest, row by row from the upper left, each
+     * tile TILE_SIZE pixels from the last. A tile for which tiles returns null stays black.
+     * @param grid  The tile names, as in a render grid.
+     * @param tiles Returns the tile for a name, as a TYPE_INT_RGB image where possible; called
+     *              from several threads at once.
+     * @param dest  A TYPE_INT_RGB image covering the grid.
+     * @throws IllegalStateException If interrupted before all tiles are drawn.
+     * @throws RuntimeException The first exception of tiles or of drawing a tile, on
+     *                          whichever thread it happened; dest is then incomplete.
+     */
+    public void compose(String[][] grid, Function<String, BufferedImage> tiles,
+                        BufferedImage dest) {
+        int columns = grid[0].length;
+        int count = grid.length * columns;
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(count);
+        /* The first failure on any thread; the remaining tiles are then only counted down. */
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                try {
+                    if (failure.get() == null) {
+                        BufferedImage tile = tiles.apply(grid[i / columns][i % columns]);
+                        if (tile != null) {
+                            blit(tile, dest, (i % columns) * MapServer.TILE_SIZE,
+                                    (i / columns) * MapServer.TILE_SIZE);
+                        }
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(parallelism, count) - 1;
+        try {
+            for (int h = 0; h < helpers; h++) {
+                pool.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            /* The pool is shut down; this thread draws the remaining tiles alone. */
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            /* Never hand back a partly drawn image, which the raster cache would keep. */
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while composing tiles", e);
+        }
+        Throwable t = failure.get();
+        if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw (RuntimeException) t;
+        }
+    }
+
+    /** Copies the pixels of tile into dest with its upper left corner at (x, y). */
+    static void blit(BufferedImage tile, BufferedImage dest, int x, int y) {
+        int width = Math.min(tile.getWidth(), dest.getWidth() - x);
+        int height = Math.min(tile.getHeight(), dest.getHeight() - y);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int[] to = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+        int stride = dest.getWidth();
+        int[] from = intPixels(tile);
+        if (from == null) {
+            tile.getRGB(0, 0, width, height, to, y * stride + x, stride);
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(from, row * tile.getWidth(), to, (y + row) * stride + x, width);
+        }
+    }
+
+    /** The pixel array of a TYPE_INT_RGB image that owns all of it, else null. */
+    private static int[] intPixels(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_INT_RGB) {
+            return null;
+        }
+        int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        return data.length == img.getWidth() * img.getHeight() ? data : null;
+    }
+
+    /**
+     * Returns img as a TYPE_INT_RGB image, drawn over black as Graphics.drawImage would draw
+     * it on a raster, so that blit can copy its rows.
+     */
+    static BufferedImage toIntRgb(BufferedImage img) {
+        if (img == null || intPixels(img) != null) {
+            return img;
+        }
+        BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = rgb.getGraphics();
+        graphic.drawImage(img, 0, 0, null);
+        graphic.dispose();
+        return rgb;
+    }
+}
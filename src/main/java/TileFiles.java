@@ -0,0 +1,159 @@
+import org.eclipse.jetty.server.HttpOutput;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Serves the tile images of a folder one by one, so that browsers and proxies can cache them.
+ *
+ * Each tile is memory-mapped on first use and its mapping kept in an LruCache bounded by the
+ * mapped bytes, so a response hands the mapped pages to Jetty to write to the socket without
+ * copying them through the Java heap, and a pyramid larger than the bound does not keep every
+ * tile it ever served mapped.
+ * Every tile has a strong ETag derived from its contents; a request whose If-None-Match
+ * matches it gets a 304 with no body. A tile whose length or modification time changes on
+ * disk is mapped and hashed again.
+ */
+public class TileFiles {
+    private final String root;
+    private final TilePyramid pyramid;
+    private final String cacheControl;
+    private final LruCache<String, Tile> tiles;
+
+    /**
+     * @param root       The folder holding the d{depth}_x{x}_y{y}.png files.
+     * @param pyramid    The tiles that may be in the folder.
+     * @param maxAgeSecs How long clients may use a tile without revalidating it.
+     * @param maxBytes   The most tile bytes to keep mapped.
+     */
+    public TileFiles(String root, TilePyramid pyramid, long maxAgeSecs, long maxBytes) {
+        this.root = root;
+        this.pyramid = pyramid;
+        this.cacheControl = "public, max-age=" + maxAgeSecs;
+        this.tiles = new LruCache<>(maxBytes, Tile::weight);
+    }
+
+    /**
+     * Returns the file name of a tile, or null if there is no such tile position.
+     */
+    String fileName(int depth, int x, int y) {
+        return pyramid.contains(depth, x, y) ? pyramid.fileName(depth, x, y) : null;
+    }
+
+    /**
+     * Returns the tile with the given file name, mapping it if it is new or has changed, or
+     * null if the file does not exist.
+     */
+    Tile tile(String fileName) throws IOException {
+        File file = new File(root, fileName);
+        long length = file.length();
+        long modified = file.lastModified();
+        if (modified == 0) {
+            tiles.remove(fileName);
+            return null;
+        }
+        Tile tile = tiles.getIfPresent(fileName);
+        if (tile == null || tile.length != length || tile.modified != modified) {
+            tiles.remove(fileName);
+            tile = tiles.putIfAbsent(fileName, new Tile(file, length, modified));
+        }
+        return tile;
+    }
+
+    /**
+     * Answers a tile request: a 404 for a missing tile, a 304 if the client's copy is
+     * current, and otherwise the tile itself.
+     * @return The status code sent.
+     */
+    int send(String fileName, String ifNoneMatch, HttpServletResponse response)
+            throws IOException {
+        Tile tile = fileName == null ? null : tile(fileName);
+        if (tile == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return HttpServletResponse.SC_NOT_FOUND;
+        }
+        response.setHeader("ETag", tile.etag);
+        response.setHeader("Cache-Control", cacheControl);
+        if (matches(ifNoneMatch, tile.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return HttpServletResponse.SC_NOT_MODIFIED;
+        }
+        response.setContentType("image/png");
+        response.setContentLength((int) tile.length);
+        ByteBuffer content = tile.data.duplicate();
+        ServletOutputStream out = response.getOutputStream();
+        if (out instanceof HttpOutput) {
+            ((HttpOutput) out).sendContent(content);
+        } else {
+            Channels.newChannel(out).write(content);
+        }
+        return HttpServletResponse.SC_OK;
+    }
+
+    /**
+     * Whether an If-None-Match header matches etag. The comparison is weak, as the header
+     * requires, so a W/ prefix on the client's tag is ignored.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return tiles.size();
+    }
+
+    /** Returns the counters of the mapped tiles, for the stats endpoint. */
+    Map<String, Object> stats() {
+        return tiles.stats();
+    }
+
+    /** A mapped tile file with the ETag of its contents. */
+    static class Tile {
+        private static final long ENTRY_BYTES = 256;
+        private final long length;
+        private final long modified;
+        private final MappedByteBuffer data;
+        private final String etag;
+
+        Tile(File file, long length, long modified) throws IOException {
+            this.length = length;
+            this.modified = modified;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(crc.getValue()) + "\"";
+        }
+
+        String etag() {
+            return etag;
+        }
+
+        /** The mapped bytes, plus a little for the entry, so empty files are not free. */
+        long weight() {
+            return length + ENTRY_BYTES;
+        }
+    }
+}
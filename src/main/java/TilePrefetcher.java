@@ -0,0 +1,227 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Warms the tile cache around the viewport a client last asked for, so that the next pan or
+ * zoom finds its tiles decoded: first the ring of tiles around the grid at the same depth,
+ * then the tiles covering it one depth up, then the tiles covering its middle one depth down.
+ *
+ * Prefetching never competes with requests. It runs on one minimum-priority thread, and
+ * pauses while any foreground render is in progress. Its queue holds only a few viewports;
+ * when it is full the oldest waiting viewport is dropped, and a viewport still being
+ * prefetched when a newer one arrives is abandoned, since the client has moved on.
+ */
+public class TilePrefetcher {
+    /** Viewports that may wait to be prefetched. */
+    private static final int QUEUE_CAPACITY = 4;
+    /** How long the prefetch thread sleeps while foreground renders are running. */
+    private static final long BACK_OFF_MILLIS = 2;
+
+    private final TilePyramid pyramid;
+    private final Predicate<String> cached;
+    private final Predicate<String> load;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong generations = new AtomicLong();
+    private final AtomicInteger foreground = new AtomicInteger();
+    /** Viewports queued or being prefetched. */
+    private final AtomicInteger pending = new AtomicInteger();
+    /** Tiles loaded by prefetching that no request has used yet. */
+    private final Set<String> unused = ConcurrentHashMap.newKeySet();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong alreadyCached = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param pyramid The tiles that exist.
+     * @param cached  Whether the tile with a file name is cached; must not count as a use.
+     * @param load    Reads the tile with a file name into the cache; returns whether it could.
+     */
+    public TilePrefetcher(TilePyramid pyramid, Predicate<String> cached,
+                          Predicate<String> load) {
+        this.pyramid = pyramid;
+        this.cached = cached;
+        this.load = load;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "tile-prefetch");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }, (job, pool) -> {
+                    /* Back-pressure: the oldest waiting viewport is the least relevant. */
+                    if (pool.isShutdown()) {
+                        pending.decrementAndGet();
+                    } else if (pool.getQueue().poll() != null) {
+                        pending.decrementAndGet();
+                        dropped.incrementAndGet();
+                        pool.execute(job);
+                    } else {
+                        pool.execute(job);
+                    }
+                });
+    }
+
+    /**
+     * Queues the surroundings of a render grid for prefetching, superseding any viewport
+     * being prefetched.
+     * @param grid A render grid of tile file names, as Rasterer returns.
+     */
+    public void viewed(String[][] grid) {
+        int[] ul = parse(grid[0][0]);
+        String[] lastRow = grid[grid.length - 1];
+        int[] lr = parse(lastRow[lastRow.length - 1]);
+        if (ul == null || lr == null || ul[0] != lr[0]) {
+            return;
+        }
+        long generation = generations.incrementAndGet();
+        scheduled.incrementAndGet();
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                prefetch(generation, ul[0], ul[1], ul[2], lr[1], lr[2]);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    /** Marks the start of a foreground render, during which prefetching pauses. */
+    public void beginForeground() {
+        foreground.incrementAndGet();
+    }
+
+    public void endForeground() {
+        foreground.decrementAndGet();
+    }
+
+    /**
+     * Records that a request is about to use a tile, counting a hit if prefetching loaded it
+     * and it is still cached. A prefetched tile evicted before its first use is read from
+     * disk again and is no hit.
+     */
+    public void used(String fileName) {
+        if (!unused.isEmpty() && unused.remove(fileName) && cached.test(fileName)) {
+            hits.incrementAndGet();
+        }
+    }
+
+    private void prefetch(long generation, int depth, int x0, int y0, int x1, int y1) {
+        for (String fileName : candidates(depth, x0, y0, x1, y1)) {
+            while (foreground.get() > 0 && generation == generations.get()) {
+                try {
+                    Thread.sleep(BACK_OFF_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (generation != generations.get()) {
+                superseded.incrementAndGet();
+                return;
+            }
+            if (cached.test(fileName)) {
+                alreadyCached.incrementAndGet();
+                continue;
+            }
+            if (load.test(fileName)) {
+                unused.add(fileName);
+                prefetched.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the tiles to prefetch around the grid of columns x0 to x1 and rows y0 to y1 at
+     * depth, most likely needed first.
+     */
+    List<String> candidates(int depth, int x0, int y0, int x1, int y1) {
+        List<String> names = new ArrayList<>();
+        /* The ring one tile wide around the grid, at the same depth. */
+        for (int x = x0 - 1; x <= x1 + 1; x++) {
+            add(names, depth, x, y0 - 1);
+            add(names, depth, x, y1 + 1);
+        }
+        for (int y = y0; y <= y1; y++) {
+            add(names, depth, x0 - 1, y);
+            add(names, depth, x1 + 1, y);
+        }
+        /* Zooming out: the parents of the grid. */
+        if (depth > 0) {
+            for (int y = y0 >> 1; y <= y1 >> 1; y++) {
+                for (int x = x0 >> 1; x <= x1 >> 1; x++) {
+                    add(names, depth - 1, x, y);
+                }
+            }
+        }
+        /* Zooming in: the children of the middle half of the grid. */
+        if (depth < pyramid.maxDepth()) {
+            int cx0 = x0 + (x1 - x0) / 4;
+            int cx1 = x1 - (x1 - x0) / 4;
+            int cy0 = y0 + (y1 - y0) / 4;
+            int cy1 = y1 - (y1 - y0) / 4;
+            for (int y = 2 * cy0; y <= 2 * cy1 + 1; y++) {
+                for (int x = 2 * cx0; x <= 2 * cx1 + 1; x++) {
+                    add(names, depth + 1, x, y);
+                }
+            }
+        }
+        return names;
+    }
+
+    private void add(List<String> names, int depth, int x, int y) {
+        if (pyramid.contains(depth, x, y)) {
+            names.add(pyramid.fileName(depth, x, y));
+        }
+    }
+
+    /** Parses d{depth}_x{x}_y{y}.png into depth, x and y, or returns null. */
+    static int[] parse(String fileName) {
+        int x = fileName.indexOf("_x");
+        int y = fileName.indexOf("_y");
+        int dot = fileName.indexOf('.');
+        if (!fileName.startsWith("d") || x < 0 || y < x || dot < y) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(fileName.substring(1, x)),
+                Integer.parseInt(fileName.substring(x + 2, y)),
+                Integer.parseInt(fileName.substring(y + 2, dot))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Waits until no viewport is queued or being prefetched, for tests. */
+    void awaitIdle() throws InterruptedException {
+        while (pending.get() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    /** Returns the prefetch counters, for the stats endpoint. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long loaded = prefetched.get();
+        long h = hits.get();
+        stats.put("viewports", scheduled.get());
+        stats.put("dropped", dropped.get());
+        stats.put("superseded", superseded.get());
+        stats.put("prefetched", loaded);
+        stats.put("already_cached", alreadyCached.get());
+        stats.put("hits", h);
+        stats.put("hit_rate", loaded == 0 ? 0.0 : (double) h / loaded);
+        return stats;
+    }
+}
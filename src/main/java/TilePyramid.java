@@ -0,0 +1,165 @@
+/**
+ * The quadtree of map tiles: a root tile covering the map, each tile split into four at the
+ * next depth, down to a maximum depth. Immutable, and built once at startup.
+ *
+ * Per depth it holds the longitudinal distance per pixel and the tile extent in degrees, so
+ * that finding the depth and the tiles of a query is a scan of a few doubles and some
+ * divisions, and the tile file names, so that no name is built per request. Name tables are
+ * kept for depths of up to NAME_TABLE_LIMIT tiles; names at deeper depths are built on use.
+ */
+public class TilePyramid {
+    /** The most tiles a depth may have for its names to be kept in a table. */
+    private static final int NAME_TABLE_LIMIT = 1 << 16;
+
+    private final double ullon;
+    private final double ullat;
+    private final double lrlon;
+    private final double lrlat;
+    private final int tileSize;
+    private final int maxDepth;
+    /** Longitudinal distance per pixel of the tiles at each depth. */
+    private final double[] lonDPP;
+    private final double[] tileWidth;
+    private final double[] tileHeight;
+    /** File names by depth, then y * 2^depth + x; null for depths too deep to tabulate. */
+    private final String[][] names;
+
+    /**
+     * @param ullon    Upper left longitude of the root tile.
+     * @param ullat    Upper left latitude of the root tile.
+     * @param lrlon    Lower right longitude of the root tile.
+     * @param lrlat    Lower right latitude of the root tile.
+     * @param tileSize The width and height of a tile in pixels.
+     * @param maxDepth The deepest depth there are tiles for; the root is depth 0.
+     */
+    public TilePyramid(double ullon, double ullat, double lrlon, double lrlat, int tileSize,
+                       int maxDepth) {
+        if (!(ullon < lrlon && lrlat < ullat) || tileSize <= 0 || maxDepth < 0
+                || maxDepth > 30) {
+            throw new IllegalArgumentException("Bad tile pyramid");
+        }
+        this.ullon = ullon;
+        this.ullat = ullat;
+        this.lrlon = lrlon;
+        this.lrlat = lrlat;
+        this.tileSize = tileSize;
+        this.maxDepth = maxDepth;
+        lonDPP = new double[maxDepth + 1];
+        tileWidth = new double[maxDepth + 1];
+        tileHeight = new double[maxDepth + 1];
+        names = new String[maxDepth + 1][];
+        for (int d = 0; d <= maxDepth; d++) {
+            tileWidth[d] = (lrlon - ullon) / Math.pow(2, d);
+            tileHeight[d] = (ullat - lrlat) / Math.pow(2, d);
+            lonDPP[d] = tileWidth[d] / tileSize;
+            int side = 1 << d;
+            if ((long) side * side <= NAME_TABLE_LIMIT) {
+                names[d] = new String[side * side];
+                for (int y = 0; y < side; y++) {
+                    for (int x = 0; x < side; x++) {
+                        names[d][y * side + x] = buildName(d, x, y).intern();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The pyramid of the Berkeley tiles, with a maximum depth of 7 unless set with
+     * -DmaxDepth=N and root bounds of MapServer.ROOT_* unless set with
+     * -DrootBounds=ullon,ullat,lrlon,lrlat.
+     */
+    static TilePyramid fromProperties() {
+        double[] root = {MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON,
+            MapServer.ROOT_LRLAT};
+        String bounds = System.getProperty("rootBounds");
+        if (bounds != null) {
+            String[] parts = bounds.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("rootBounds must be ullon,ullat,lrlon,lrlat");
+            }
+            for (int i = 0; i < 4; i++) {
+                root[i] = Double.parseDouble(parts[i].trim());
+            }
+        }
+        return new TilePyramid(root[0], root[1], root[2], root[3], MapServer.TILE_SIZE,
+                Integer.getInteger("maxDepth", 7));
+    }
+
+    /**
+     * Returns the shallowest depth whose tiles have a lonDPP no greater than queryLonDPP, or
+     * the maximum depth if none is that fine.
+     */
+    public int depthFor(double queryLonDPP) {
+        for (int d = 0; d < maxDepth; d++) {
+            if (lonDPP[d] <= queryLonDPP) {
+                return d;
+            }
+        }
+        return maxDepth;
+    }
+
+    /** Returns the index of the tile column containing lon at depth; may be out of range. */
+    public int column(int depth, double lon) {
+        return (int) Math.floor((lon - ullon) / tileWidth[depth]);
+    }
+
+    /** Returns the index of the tile row containing lat at depth; may be out of range. */
+    public int row(int depth, double lat) {
+        return (int) Math.floor((ullat - lat) / tileHeight[depth]);
+    }
+
+    /** Returns the longitude of the left edge of tile column x at depth. */
+    public double lonOf(int depth, int x) {
+        return ullon + x * tileWidth[depth];
+    }
+
+    /** Returns the latitude of the top edge of tile row y at depth. */
+    public double latOf(int depth, int y) {
+        return ullat - y * tileHeight[depth];
+    }
+
+    /** Whether depth, x and y name a tile of the pyramid. */
+    public boolean contains(int depth, int x, int y) {
+        return depth >= 0 && depth <= maxDepth && x >= 0 && y >= 0 && x < 1 << depth
+                && y < 1 << depth;
+    }
+
+    /**
+     * Returns the file name of a tile, d{depth}_x{x}_y{y}.png. Positions outside the pyramid,
+     * which queries at its edge refer to, get a name of the same form.
+     */
+    public String fileName(int depth, int x, int y) {
+        if (contains(depth, x, y) && names[depth] != null) {
+            return names[depth][(y << depth) + x];
+        }
+        return buildName(depth, x, y);
+    }
+
+    private static String buildName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /** Whether a query box overlaps the root tile and is the right way round. */
+    public boolean overlaps(double qullon, double qullat, double qlrlon, double qlrlat) {
+        return qullon < lrlon && qlrlon > ullon && qullat > lrlat && qlrlat < ullat
+                && qullon <= qlrlon && qullat >= qlrlat;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public int tileSize() {
+        return tileSize;
+    }
+
+    public double lonDPP(int depth) {
+        return lonDPP[depth];
+    }
+
+    /** Returns the latitudinal distance per pixel of the tiles at depth. */
+    public double latDPP(int depth) {
+        return tileHeight[depth] / tileSize;
+    }
+}
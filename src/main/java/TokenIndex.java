@@ -0,0 +1,300 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The word index of location names, so that a search for "library" finds "Doe Memorial
+ * Library". Locations are numbered densely in cleaned name order, and each distinct word of
+ * the cleaned names, a token, has a posting list of the locations whose name contains it.
+ *
+ * Posting lists are sorted, stored as the gaps between successive locations in variable
+ * length bytes (seven bits per byte, the high bit set on all but the last), and packed into
+ * one byte array; most gaps take one byte. Tokens are kept sorted, so the tokens starting
+ * with a prefix are a contiguous range. A query decodes and intersects only the posting lists
+ * of its tokens, so its cost grows with their length and not with the number of names.
+ *
+ * Built once after the graph is loaded and never changed, so it can be shared by any number
+ * of request threads.
+ */
+public class TokenIndex {
+    /** Sorts after every character a token can contain. */
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+
+    /** The distinct tokens, sorted. */
+    private final String[] tokens;
+    /** The posting list of tokens[t] is postings[postingStart[t] .. postingStart[t + 1]). */
+    private final int[] postingStart;
+    /** The number of locations in the posting list of each token. */
+    private final int[] postingCount;
+    private final byte[] postings;
+    /** The id of the location with each dense number. */
+    private final long[] ids;
+    /** The distinct cleaned names, sorted. */
+    private final String[] keys;
+    /** The locations named keys[i] are numbered keyStart[i] to keyStart[i + 1] - 1. */
+    private final int[] keyStart;
+
+    /**
+     * @param names The ids of the locations of each cleaned name.
+     */
+    public TokenIndex(Map<String, ? extends List<Long>> names) {
+        keys = names.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        keyStart = new int[keys.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            keyStart[i + 1] = keyStart[i] + names.get(keys[i]).size();
+        }
+        ids = new long[keyStart[keys.length]];
+
+        /* Pairs of (token number, location number), packed into longs for sorting. */
+        Map<String, Integer> tokenNumbers = new HashMap<>();
+        List<String> seen = new ArrayList<>();
+        long[] pairs = new long[16];
+        int pairCount = 0;
+        int location = 0;
+        for (String key : keys) {
+            String[] words = tokenize(key);
+            for (long id : names.get(key)) {
+                ids[location] = id;
+                for (String word : words) {
+                    Integer t = tokenNumbers.get(word);
+                    if (t == null) {
+                        t = seen.size();
+                        tokenNumbers.put(word, t);
+                        seen.add(word);
+                    }
+                    if (pairCount == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, 2 * pairCount);
+                    }
+                    pairs[pairCount++] = (long) t << 32 | location;
+                }
+                location++;
+            }
+        }
+
+        tokens = seen.toArray(new String[0]);
+        Arrays.sort(tokens);
+        int[] rank = new int[tokens.length];
+        for (int t = 0; t < tokens.length; t++) {
+            rank[tokenNumbers.get(tokens[t])] = t;
+        }
+        for (int p = 0; p < pairCount; p++) {
+            pairs[p] = (long) rank[(int) (pairs[p] >>> 32)] << 32 | (pairs[p] & 0xffffffffL);
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        postingStart = new int[tokens.length + 1];
+        postingCount = new int[tokens.length];
+        byte[] bytes = new byte[Math.max(16, pairCount)];
+        int length = 0;
+        int token = -1;
+        int previous = 0;
+        for (int p = 0; p < pairCount; p++) {
+            int t = (int) (pairs[p] >>> 32);
+            int loc = (int) pairs[p];
+            if (t != token) {
+                while (token < t) {
+                    postingStart[++token] = length;
+                }
+                previous = 0;
+            } else if (loc == previous) {
+                /* A name with a repeated word. */
+                continue;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+            length = writeVarint(bytes, length, loc - previous);
+            postingCount[t]++;
+            previous = loc;
+        }
+        while (token < tokens.length) {
+            postingStart[++token] = length;
+        }
+        postings = Arrays.copyOf(bytes, length);
+    }
+
+    /** Splits a cleaned name or query into its words. */
+    static String[] tokenize(String clean) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= clean.length(); i++) {
+            boolean space = i == clean.length() || clean.charAt(i) == ' ';
+            if (space && start >= 0) {
+                words.add(clean.substring(start, i));
+                start = -1;
+            } else if (!space && start < 0) {
+                start = i;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static int writeVarint(byte[] bytes, int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            bytes[pos++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        return pos;
+    }
+
+    /** Decodes the posting list of token t into ascending location numbers. */
+    private int[] decode(int t) {
+        int[] locations = new int[postingCount[t]];
+        int pos = postingStart[t];
+        int previous = 0;
+        for (int i = 0; i < locations.length; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[pos++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += value;
+            locations[i] = previous;
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the ids of the locations whose cleaned name contains every word of query, the
+     * last one possibly as the start of a word, in cleaned name order, at most limit of them.
+     * @param query A cleaned query of one or more words.
+     * @param limit The most ids to return.
+     */
+    public long[] search(String query, int limit) {
+        int[] matches = matches(query);
+        long[] result = new long[Math.min(matches.length, Math.max(0, limit))];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids[matches[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the numbers of the locations whose cleaned name contains every word of query,
+     * the last one possibly as the start of a word, in ascending order.
+     * @param query A cleaned query.
+     */
+    public int[] matches(String query) {
+        String[] words = tokenize(query);
+        if (words.length == 0) {
+            return new int[0];
+        }
+        /* Whole words, shortest posting list first, so intermediate results stay small. */
+        Integer[] whole = new Integer[words.length - 1];
+        for (int w = 0; w < whole.length; w++) {
+            int t = Arrays.binarySearch(tokens, words[w]);
+            if (t < 0) {
+                return new int[0];
+            }
+            whole[w] = t;
+        }
+        Arrays.sort(whole, (a, b) -> Integer.compare(postingCount[a], postingCount[b]));
+        int[] matches = null;
+        for (int t : whole) {
+            matches = matches == null ? decode(t) : intersect(matches, decode(t));
+        }
+
+        /* The last word as a prefix: the union of the posting lists of its tokens. */
+        String prefix = words[words.length - 1];
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + MAX_CHAR);
+        int[] union;
+        if (to - from == 1) {
+            union = decode(from);
+        } else {
+            int total = 0;
+            for (int t = from; t < to; t++) {
+                total += postingCount[t];
+            }
+            union = new int[total];
+            int n = 0;
+            for (int t = from; t < to; t++) {
+                int[] list = decode(t);
+                System.arraycopy(list, 0, union, n, list.length);
+                n += list.length;
+            }
+            Arrays.sort(union);
+            union = distinct(union);
+        }
+        return matches == null ? union : intersect(matches, union);
+    }
+
+    /** Returns the numbers of the locations with a cleaned name, in ascending order. */
+    public int[] named(String clean) {
+        int k = Arrays.binarySearch(keys, clean);
+        if (k < 0) {
+            return new int[0];
+        }
+        int[] locations = new int[keyStart[k + 1] - keyStart[k]];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = keyStart[k] + i;
+        }
+        return locations;
+    }
+
+    /** Returns the id of the location with a number. */
+    public long id(int location) {
+        return ids[location];
+    }
+
+    /** The number of locations; they are numbered from 0. */
+    public int locations() {
+        return ids.length;
+    }
+
+    /** Returns the numbers in both ascending arrays a and b. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] both = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, n);
+    }
+
+    /** Drops repeats from an ascending array. */
+    private static int[] distinct(int[] sorted) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    /** Returns the index of the first token not less than token. */
+    private int lowerBound(String token) {
+        int lo = 0;
+        int hi = tokens.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[mid].compareTo(token) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** The number of distinct tokens. */
+    public int size() {
+        return tokens.length;
+    }
+}
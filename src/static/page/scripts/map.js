@@ -26,10 +26,14 @@ $(function() {
     };
     const SAFE_WIDTH = 1120;
     const SAFE_HEIGHT = 800;
+    const ROUTE_STROKE_COLOR = 'rgba(108, 181, 230, 0.78)';
+    const ROUTE_STROKE_WIDTH_PX = 5;
     // psueod-lock
     var getInProgress = false;
     var route_params = {};
     var map;
+    var routeCanvas;
+    var route = null; // {lats, lons} of the current route per depth, drawn by the client
     var dest;
     var tx = 0, ty = 0;
     var rtx, rty;
@@ -101,6 +105,68 @@ $(function() {
         }
     }
 
+    /* Decodes a route_polyline from /route (the Google encoded polyline format, 6 places) */
+    function decodePolyline(encoded) {
+        const lats = [];
+        const lons = [];
+        var pos = 0, lat = 0, lon = 0;
+        function next() {
+            var result = 0, shift = 0, b;
+            do {
+                b = encoded.charCodeAt(pos++) - 63;
+                result |= (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20);
+            return (result & 1) ? ~(result >> 1) : (result >> 1);
+        }
+        while (pos < encoded.length) {
+            lat += next();
+            lon += next();
+            lats.push(lat / 1e6);
+            lons.push(lon / 1e6);
+        }
+        return {lats: lats, lons: lons};
+    }
+
+    /* Decodes the route simplified for each depth, or the full route from older servers */
+    function decodeRoute(data) {
+        if (data.route_polylines && data.route_polylines.length > 0) {
+            return data.route_polylines.map(decodePolyline);
+        }
+        return data.route_polyline ? [decodePolyline(data.route_polyline)] : null;
+    }
+
+    /* Draws the route for the current depth over the current raster, in the raster's
+       pixel coordinates */
+    function drawRoute() {
+        routeCanvas.width = img_w;
+        routeCanvas.height = img_h;
+        const ctx = routeCanvas.getContext('2d');
+        ctx.clearRect(0, 0, img_w, img_h);
+        if (!route) {
+            return;
+        }
+        const line = route[Math.min(current_level, route.length - 1)];
+        if (line.lats.length < 2) {
+            return;
+        }
+        ctx.strokeStyle = ROUTE_STROKE_COLOR;
+        ctx.lineWidth = ROUTE_STROKE_WIDTH_PX;
+        ctx.lineCap = 'round';
+        ctx.lineJoin = 'round';
+        ctx.beginPath();
+        for (var i = 0; i < line.lats.length; i++) {
+            const x = (line.lons[i] - ullon_bound) / wdpp;
+            const y = (ullat_bound - line.lats[i]) / hdpp;
+            if (i === 0) {
+                ctx.moveTo(x, y);
+            } else {
+                ctx.lineTo(x, y);
+            }
+        }
+        ctx.stroke();
+    }
+
     function updateImg(successCallback) {
         /* Synchronous ajax call for image update.
            Could be async for better experience but then user spam locks up the server.
@@ -116,7 +182,8 @@ $(function() {
                 console.log(data);
                 if (data.query_success) {
                     $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
+                    map.src = 'data:' + (data.raster_type || 'image/png') + ';base64,'
+                        + data.b64_encoded_image_data;
                     console.log('Updating map with image length: ' +
                                 data.b64_encoded_image_data.length);
                     ullon_bound = data.raster_ul_lon;
@@ -133,6 +200,7 @@ $(function() {
                     ty = (params.ullat - ullat_bound) * (1 / hdpp);
                     rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
                     rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
+                    drawRoute();
                     updateMarkers();
                     getInProgress = false;
                     if (successCallback) {
@@ -155,6 +223,7 @@ $(function() {
 
     function updateT() {
         map.style.transform = 'translateX(' + tx + 'px) translateY(' + ty + 'px)';
+        routeCanvas.style.transform = map.style.transform;
         dest.style.transform = 'translateX(' + (tx+rtx) + 'px) translateY(' + (ty+rty) + 'px)';
         for (var i = 0; i < markers.length; i++) {
             const marker = markers[i];
@@ -173,6 +242,7 @@ $(function() {
             data: route_params,
             success: function(data) {
                 data = JSON.parse(data);
+                route = decodeRoute(data);
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -313,6 +383,7 @@ $(function() {
     /* ══════════════════════════════════ ೋღ SETUP ღೋ ════════════════════════════════ */
 
     map = document.getElementById('map');
+    routeCanvas = document.getElementById('route-overlay');
     dest = document.getElementById('dest');
     dest.style.visibility = 'hidden';
     params.lrlon = real_lrlon();
@@ -332,7 +403,9 @@ $(function() {
                   async: true,
                   url: search,
                   dataType: 'json',
-                  data: { term: ui.item.value, full: true},
+                  /* Every location of the name, those nearest the view first */
+                  data: { term: ui.item.value, full: true, ullat: params.ullat,
+                          ullon: params.ullon, lrlat: real_lrlat(), lrlon: real_lrlon() },
                   success: function(data) {
                       removeMarkers();
                       for (var i = 0; i < data.length; i++) {
@@ -408,6 +481,7 @@ $(function() {
             async: true,
             url: clear_route,
             success: function() {
+                route = null;
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
                 update();
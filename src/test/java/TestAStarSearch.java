@@ -0,0 +1,158 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the primitive A*, bidirectional A* and contraction hierarchy cores against a plain
+ * Dijkstra written here and that, once their buffers exist, a query allocates nothing.
+ * Allocation is measured with the JVM's per-thread allocation counter.
+ */
+public class TestAStarSearch {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final int ROUNDS = 1000;
+    /**
+     * The rounds are measured in batches and the least allocating batch counts: the JIT
+     * allocates a few hundred bytes once when it recompiles the search, while an allocation
+     * in the search itself would show up in every batch.
+     */
+    private static final int BATCHES = 5;
+    /** Slack for the allocation counter itself; a single boxed path would exceed it. */
+    private static final long ALLOWED_BYTES = 256;
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        CompactGraph c = graphTiny.compact();
+        AStarSearch search = new AStarSearch(c);
+        BidirectionalSearch bidirectional = new BidirectionalSearch(c);
+        CHSearch ch = new CHSearch(graphTiny.contractionHierarchy());
+        Landmarks landmarks = graphTiny.landmarks();
+        for (int s = 0; s < c.size(); s++) {
+            double[] dist = dijkstra(c, s);
+            for (int t = 0; t < c.size(); t++) {
+                for (Landmarks lm : new Landmarks[]{null, landmarks}) {
+                    int length = search.search(s, t, lm);
+                    int[] path = new int[length];
+                    for (int i = 0; i < length; i++) {
+                        path[i] = search.pathVertex(i);
+                    }
+                    assertShortest(c, s, t, dist[t], path);
+                }
+                int length = bidirectional.search(s, t);
+                int[] path = new int[length];
+                for (int i = 0; i < length; i++) {
+                    path[i] = bidirectional.pathVertex(i);
+                }
+                assertShortest(c, s, t, dist[t], path);
+                length = ch.search(s, t);
+                path = new int[length];
+                for (int i = 0; i < length; i++) {
+                    path[i] = ch.pathVertex(i);
+                }
+                assertShortest(c, s, t, dist[t], path);
+            }
+        }
+    }
+
+    /** Checks that path is a chain of edges from s to t of length dist, or empty if none. */
+    private static void assertShortest(CompactGraph c, int s, int t, double dist, int[] path) {
+        if (dist == Double.POSITIVE_INFINITY) {
+            assertEquals(0, path.length);
+            return;
+        }
+        assertEquals(s, path[0]);
+        assertEquals(t, path[path.length - 1]);
+        double miles = 0;
+        for (int i = 1; i < path.length; i++) {
+            miles += edgeLength(c, path[i - 1], path[i]);
+        }
+        assertEquals(dist, miles, 1e-9);
+    }
+
+    /** Shortest distances from s to every vertex, by scanning for the closest unsettled one. */
+    private static double[] dijkstra(CompactGraph c, int s) {
+        double[] dist = new double[c.size()];
+        boolean[] settled = new boolean[c.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[s] = 0;
+        while (true) {
+            int v = -1;
+            for (int u = 0; u < c.size(); u++) {
+                if (!settled[u] && dist[u] < Double.POSITIVE_INFINITY
+                        && (v < 0 || dist[u] < dist[v])) {
+                    v = u;
+                }
+            }
+            if (v < 0) {
+                return dist;
+            }
+            settled[v] = true;
+            for (int e = c.firstEdge(v); e < c.endEdge(v); e++) {
+                dist[c.target(e)] = Math.min(dist[c.target(e)], dist[v] + c.length(e));
+            }
+        }
+    }
+
+    /** The length of the shortest edge from v to w; fails if there is none. */
+    private static double edgeLength(CompactGraph c, int v, int w) {
+        double length = Double.POSITIVE_INFINITY;
+        for (int e = c.firstEdge(v); e < c.endEdge(v); e++) {
+            if (c.target(e) == w) {
+                length = Math.min(length, c.length(e));
+            }
+        }
+        assertTrue("No edge " + v + " -> " + w, length < Double.POSITIVE_INFINITY);
+        return length;
+    }
+
+    @Test
+    public void testSteadyStateAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CompactGraph c = graphTiny.compact();
+        AStarSearch search = graphTiny.search();
+        BidirectionalSearch bidirectional = graphTiny.bidirectionalSearch();
+        CHSearch ch = graphTiny.chSearch();
+        Landmarks landmarks = graphTiny.landmarks();
+        runQueries(c, search, bidirectional, ch, landmarks);
+
+        long thread = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        for (int batch = 0; batch < BATCHES; batch++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int round = 0; round < ROUNDS / BATCHES; round++) {
+                runQueries(c, search, bidirectional, ch, landmarks);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        assertTrue("Searches allocated " + allocated + " bytes", allocated <= ALLOWED_BYTES);
+    }
+
+    private static void runQueries(CompactGraph c, AStarSearch search,
+                                   BidirectionalSearch bidirectional, CHSearch ch,
+                                   Landmarks landmarks) {
+        for (int s = 0; s < c.size(); s++) {
+            for (int t = 0; t < c.size(); t++) {
+                search.search(s, t, null);
+                search.search(s, t, landmarks);
+                bidirectional.search(s, t);
+                ch.search(s, t);
+            }
+        }
+    }
+}
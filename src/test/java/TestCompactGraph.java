@@ -0,0 +1,67 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the CSR layout serves the same graph as the node map it was built from.
+ */
+public class TestCompactGraph {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testDenseIndices() {
+        CompactGraph compact = graphTiny.compact();
+        assertEquals(7, compact.size());
+        for (int v = 0; v < compact.size(); v++) {
+            assertEquals(v, compact.indexOf(compact.idAt(v)));
+        }
+        assertEquals(-1, compact.indexOf(12345L));
+    }
+
+    @Test
+    public void testAdjacencyAndEdgeLengths() {
+        CompactGraph compact = graphTiny.compact();
+        int v = compact.indexOf(63L);
+        Set<Long> neighbors = new HashSet<>();
+        for (int e = compact.firstEdge(v); e < compact.endEdge(v); e++) {
+            long w = compact.idAt(compact.target(e));
+            neighbors.add(w);
+            assertEquals(graphTiny.distance(63L, w), compact.length(e), 1e-12);
+        }
+        Set<Long> expected = new HashSet<>();
+        for (long w : graphTiny.adjacent(63L)) {
+            expected.add(w);
+        }
+        assertEquals(expected, neighbors);
+        assertEquals(0.6, compact.lonAt(v), 1e-12);
+        assertEquals(38.3, compact.latAt(v), 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVertex() {
+        graphTiny.adjacent(12345L);
+    }
+
+    @Test
+    public void testFootprint() {
+        String report = graphTiny.footprintReport();
+        assertTrue(report.contains("CSR layout"));
+        assertTrue(graphTiny.compact().footprintBytes() > 0);
+    }
+}
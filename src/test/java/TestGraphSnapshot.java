@@ -0,0 +1,144 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a graph read back from its binary snapshot answers like the graph parsed from
+ * XML, contraction hierarchy queries included, that stale or damaged snapshots are ignored,
+ * and that a graph parsed from a truncated file is never saved.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    /** Copies the tiny graph into the temporary folder, so snapshots are written there. */
+    private File copyOfSource() throws Exception {
+        File source = new File(folder.getRoot(), "tiny-clean.osm.xml");
+        Files.copy(new File(OSM_DB_PATH_TINY).toPath(), source.toPath());
+        return source;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File source = copyOfSource();
+        File snapshot = GraphSnapshot.fileFor(source.getPath());
+        GraphSnapshot.write(graphTiny, source, snapshot);
+        GraphDB loaded = GraphSnapshot.read(source, snapshot);
+        assertNotNull(loaded);
+        assertEquals(graphTiny.contractionHierarchy().shortcutCount(),
+                loaded.contractionHierarchy().shortcutCount());
+
+        assertEquals(toList(graphTiny.vertices()), toList(loaded.vertices()));
+        for (long v : graphTiny.vertices()) {
+            assertEquals(toList(graphTiny.adjacent(v)), toList(loaded.adjacent(v)));
+            assertEquals(graphTiny.lon(v), loaded.lon(v), 0);
+            assertEquals(graphTiny.lat(v), loaded.lat(v), 0);
+            assertEquals(graphTiny.getWayNames(v), loaded.getWayNames(v));
+            for (long w : graphTiny.vertices()) {
+                assertEquals(Router.shortestPath(graphTiny, graphTiny.lon(v), graphTiny.lat(v),
+                        graphTiny.lon(w), graphTiny.lat(w)),
+                        Router.shortestPath(loaded, graphTiny.lon(v), graphTiny.lat(v),
+                        graphTiny.lon(w), graphTiny.lat(w)));
+                assertEquals(Router.shortestPath(graphTiny, graphTiny.lon(v), graphTiny.lat(v),
+                        graphTiny.lon(w), graphTiny.lat(w), Router.Mode.CH, null),
+                        Router.shortestPath(loaded, graphTiny.lon(v), graphTiny.lat(v),
+                        graphTiny.lon(w), graphTiny.lat(w), Router.Mode.CH, null));
+            }
+        }
+        assertEquals(graphTiny.closest(0.35, 38.35), loaded.closest(0.35, 38.35));
+        assertEquals(graphTiny.keysWithPrefixOf("t"), loaded.keysWithPrefixOf("t"));
+        assertEquals(graphTiny.keysWithPrefixOf(""), loaded.keysWithPrefixOf(""));
+        assertEquals(graphTiny.getLocations("twenty two"), loaded.getLocations("twenty two"));
+        for (long id : graphTiny.getLocations("twenty two")) {
+            assertEquals(graphTiny.location(id).name, loaded.location(id).name);
+        }
+    }
+
+    @Test
+    public void testLoadWritesAndReusesSnapshot() throws Exception {
+        File source = copyOfSource();
+        File snapshot = GraphSnapshot.fileFor(source.getPath());
+        GraphDB parsed = GraphDB.load(source.getPath());
+        assertEquals(7, toList(parsed.vertices()).size());
+        assertNotNull(GraphSnapshot.read(source, snapshot));
+        assertEquals(7, toList(GraphDB.load(source.getPath()).vertices()).size());
+    }
+
+    @Test
+    public void testStaleSnapshotIsIgnored() throws Exception {
+        File source = copyOfSource();
+        File snapshot = GraphSnapshot.fileFor(source.getPath());
+        GraphSnapshot.write(graphTiny, source, snapshot);
+        source.setLastModified(source.lastModified() + 60_000);
+        assertNull(GraphSnapshot.read(source, snapshot));
+    }
+
+    @Test
+    public void testDamagedSnapshotIsIgnored() throws Exception {
+        File source = copyOfSource();
+        File snapshot = GraphSnapshot.fileFor(source.getPath());
+        GraphSnapshot.write(graphTiny, source, snapshot);
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.seek(file.length() - 3);
+            int b = file.read();
+            file.seek(file.length() - 3);
+            file.write(b ^ 0xFF);
+        }
+        assertNull(GraphSnapshot.read(source, snapshot));
+    }
+
+    @Test
+    public void testTruncatedSourceIsNotSnapshotted() throws Exception {
+        File source = new File(folder.getRoot(), "truncated.osm.xml");
+        byte[] xml = Files.readAllBytes(new File(OSM_DB_PATH_TINY).toPath());
+        Files.write(source.toPath(), Arrays.copyOf(xml, xml.length / 2));
+        File snapshot = GraphSnapshot.fileFor(source.getPath());
+        /* Each load parses the file again and fails again, instead of serving a saved graph. */
+        for (int i = 0; i < 2; i++) {
+            assertFalse(GraphDB.load(source.getPath()).isComplete());
+            assertFalse(snapshot.exists());
+        }
+        assertTrue(GraphDB.load(copyOfSource().getPath()).isComplete());
+    }
+
+    @Test
+    public void testMissingSnapshot() throws Exception {
+        File source = copyOfSource();
+        assertNull(GraphSnapshot.read(source, GraphSnapshot.fileFor(source.getPath())));
+    }
+
+    private static List<Long> toList(Iterable<Long> items) {
+        List<Long> list = new ArrayList<>();
+        for (long item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+}
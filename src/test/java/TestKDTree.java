@@ -0,0 +1,123 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares KDTree queries against a linear scan with GraphDB.distance.
+ */
+public class TestKDTree {
+    private static final int NUM_POINTS = 5000;
+    private static final int NUM_QUERIES = 500;
+
+    private final Random random = new Random(61);
+    private final double[] lons = new double[NUM_POINTS];
+    private final double[] lats = new double[NUM_POINTS];
+
+    private KDTree randomTree() {
+        for (int i = 0; i < NUM_POINTS; i++) {
+            lons[i] = MapServer.ROOT_ULLON + random.nextDouble()
+                    * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+            lats[i] = MapServer.ROOT_LRLAT + random.nextDouble()
+                    * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+        }
+        /* A few duplicate points to exercise tie breaking. */
+        lons[17] = lons[4000];
+        lats[17] = lats[4000];
+        return new KDTree(lons, lats);
+    }
+
+    /** All point indices sorted by distance to the query, ties by index. */
+    private Integer[] scan(double lon, double lat) {
+        Integer[] order = new Integer[NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Double.compare(GraphDB.distance(lons[a], lats[a], lon, lat),
+                    GraphDB.distance(lons[b], lats[b], lon, lat));
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        return order;
+    }
+
+    @Test
+    public void testNearestMatchesLinearScan() {
+        KDTree tree = randomTree();
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            double lon = -122.32 + random.nextDouble() * 0.14;
+            double lat = 37.80 + random.nextDouble() * 0.12;
+            int expected = 0;
+            for (int i = 1; i < NUM_POINTS; i++) {
+                if (GraphDB.distance(lons[i], lats[i], lon, lat)
+                        < GraphDB.distance(lons[expected], lats[expected], lon, lat)) {
+                    expected = i;
+                }
+            }
+            assertEquals(expected, tree.nearest(lon, lat));
+        }
+        assertEquals(17, tree.nearest(lons[4000], lats[4000]));
+    }
+
+    @Test
+    public void testKNearest() {
+        KDTree tree = randomTree();
+        for (int q = 0; q < 50; q++) {
+            double lon = -122.30 + random.nextDouble() * 0.09;
+            double lat = 37.82 + random.nextDouble() * 0.07;
+            Integer[] expected = scan(lon, lat);
+            int[] actual = tree.nearest(lon, lat, 25);
+            assertEquals(25, actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals((int) expected[i], actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testNearestCandidates() {
+        KDTree tree = randomTree();
+        /* Few candidates are scored directly, many are looked for in the tree. */
+        for (int every : new int[]{500, 3}) {
+            int[] candidates = new int[(NUM_POINTS + every - 1) / every];
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = i * every;
+            }
+            for (int q = 0; q < 50; q++) {
+                double lon = -122.30 + random.nextDouble() * 0.09;
+                double lat = 37.82 + random.nextDouble() * 0.07;
+                int[] expected = new int[Math.min(20, candidates.length)];
+                int n = 0;
+                for (int p : scan(lon, lat)) {
+                    if (n < expected.length && p % every == 0) {
+                        expected[n++] = p;
+                    }
+                }
+                assertArrayEquals(expected, tree.nearest(lon, lat, 20, candidates));
+            }
+        }
+        assertArrayEquals(new int[0], tree.nearest(-122.26, 37.86, 5, new int[0]));
+    }
+
+    @Test
+    public void testWithinRadius() {
+        KDTree tree = randomTree();
+        double lon = -122.26;
+        double lat = 37.86;
+        double miles = 0.4;
+        Integer[] order = scan(lon, lat);
+        int count = 0;
+        while (GraphDB.distance(lons[order[count]], lats[order[count]], lon, lat) <= miles) {
+            count++;
+        }
+        int[] actual = tree.withinRadius(lon, lat, miles);
+        assertEquals(count, actual.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals((int) order[i], actual[i]);
+        }
+        assertArrayEquals(new int[0], tree.withinRadius(-100, 10, 1));
+    }
+}
@@ -0,0 +1,59 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks weight-bounded LRU eviction and the hit, miss and eviction counters.
+ */
+public class TestLruCache {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LruCache<String, String> cache = new LruCache<>(10, String::length);
+        cache.putIfAbsent("a", "aaaa");
+        cache.putIfAbsent("b", "bbbb");
+        assertEquals("aaaa", cache.getIfPresent("a"));
+        /* b is now the least recently used entry, and 4 + 4 + 4 > 10. */
+        cache.putIfAbsent("c", "cccc");
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(8, cache.weight());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void testCounters() {
+        LruCache<Integer, String> cache = new LruCache<>(100, String::length);
+        assertEquals("1", cache.get(1, String::valueOf));
+        assertEquals("1", cache.get(1, String::valueOf));
+        assertNull(cache.getIfPresent(2));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(0.5 / 1.5, (double) cache.stats().get("hit_rate"), 1e-12);
+    }
+
+    @Test
+    public void testOversizedAndNullValuesAreNotCached() {
+        LruCache<Integer, String> cache = new LruCache<>(3, String::length);
+        assertEquals("toolong", cache.get(1, k -> "toolong"));
+        assertNull(cache.get(2, k -> null));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void testRemove() {
+        LruCache<String, String> cache = new LruCache<>(10, String::length);
+        cache.putIfAbsent("a", "aaaa");
+        cache.putIfAbsent("b", "bb");
+        cache.remove("a");
+        cache.remove("c");
+        assertFalse(cache.contains("a"));
+        assertEquals(2, cache.weight());
+        assertEquals(0, cache.evictions());
+    }
+}
@@ -0,0 +1,46 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that cleaning matches the regex it replaced on ASCII input, and folds accented and
+ * keeps non-Latin letters.
+ */
+public class TestNameNormalizer {
+    @Test
+    public void testMatchesRegexOnAscii() {
+        Random random = new Random(23);
+        for (int i = 0; i < 20000; i++) {
+            char[] chars = new char[random.nextInt(30)];
+            for (int c = 0; c < chars.length; c++) {
+                /* Mostly letters and spaces, as in real names, but every ASCII character. */
+                chars[c] = random.nextBoolean() ? "Ab Cd-ef's 7".charAt(random.nextInt(12))
+                        : (char) random.nextInt(128);
+            }
+            String s = new String(chars);
+            assertEquals(s.replaceAll("[^a-zA-Z ]", "").toLowerCase(), NameNormalizer.clean(s));
+        }
+    }
+
+    @Test
+    public void testCleanNameIsReturnedAsIs() {
+        String clean = "peets coffee";
+        assertSame(clean, NameNormalizer.clean(clean));
+        assertEquals("", NameNormalizer.clean("&!"));
+    }
+
+    @Test
+    public void testFolding() {
+        assertEquals("cafe strada", NameNormalizer.clean("Caf\u00e9 Str\u00e0da"));
+        assertEquals("strasse", NameNormalizer.clean("Stra\u00dfe"));
+        assertEquals("aero", NameNormalizer.clean("\u00c6r\u00f8"));
+        assertEquals("lodz", NameNormalizer.clean("\u0141\u00f3d\u017a"));
+        assertEquals("\u5317\u4eac sushi", NameNormalizer.clean("\u5317\u4eac Sushi!"));
+        /* Greek, which has no ASCII spelling, in lower case. */
+        assertEquals("\u03b1\u03b8\u03b7\u03bd\u03b1",
+                NameNormalizer.clean("\u0391\u03b8\u03b7\u03bd\u03b1"));
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the streaming reader builds exactly the graph the SAX handler builds, from
+ * plain and gzip compressed files, and with batches small enough that way names carry over
+ * between batches and the reader waits on full queues.
+ */
+public class TestOsmIngest {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final String OSM_DB_PATH_SYNTHETIC = "../library-sp18/data/synthetic.osm.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesSaxHandler() {
+        assertSameGraph(new GraphDB(OSM_DB_PATH_TINY, true), new GraphDB(OSM_DB_PATH_TINY));
+    }
+
+    @Test
+    public void testSmallBatches() throws Exception {
+        File file = folder.newFile("batches.osm.xml");
+        Files.write(file.toPath(), batchesXml().getBytes("UTF-8"));
+        GraphDB expected = new GraphDB(file.getPath(), true);
+        /* Forty ways and a hundred nodes: with batches of 1 or 2, far more than the 16
+         * batches the reader lets wait. */
+        for (int batchSize : new int[]{1, 2, 3, 7, 4096}) {
+            assertSameGraph(expected, new GraphDB(file.getPath(), batchSize));
+        }
+        assertSameGraph(new GraphDB(OSM_DB_PATH_TINY, true), new GraphDB(OSM_DB_PATH_TINY, 1));
+    }
+
+    @Test
+    public void testSyntheticMatchesSaxHandler() {
+        GraphDB expected = new GraphDB(OSM_DB_PATH_SYNTHETIC, true);
+        assertSameGraph(expected, new GraphDB(OSM_DB_PATH_SYNTHETIC));
+        assertSameGraph(expected, new GraphDB(OSM_DB_PATH_SYNTHETIC, 64));
+    }
+
+    /**
+     * A chain of 80 nodes joined by 40 ways, then 20 more nodes. Every third way has no name
+     * and takes the last name seen, which may belong to a way that is not a road; every
+     * fifth is not a road. The nodes after the ways are named or on no way, so the second
+     * pass must read to the end of the file.
+     */
+    private static String batchesXml() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<osm version=\"0.6\">\n");
+        for (int i = 0; i < 80; i++) {
+            node(xml, i, i % 7 == 0 ? "Stop " + (i % 3) : null);
+        }
+        for (int w = 0; w < 40; w++) {
+            xml.append(String.format("<way id=\"%d\">", w + 1));
+            for (int i = 2 * w; i <= Math.min(2 * w + 2, 79); i++) {
+                xml.append(String.format("<nd ref=\"%d\"/>", 1000 + i));
+            }
+            xml.append(String.format("<tag k=\"highway\" v=\"%s\"/>",
+                    w % 5 == 4 ? "footway" : "residential"));
+            if (w % 3 != 2) {
+                xml.append(String.format("<tag k=\"name\" v=\"Way %d\"/>", w));
+            }
+            xml.append("</way>\n");
+        }
+        for (int i = 80; i < 100; i++) {
+            node(xml, i, i % 2 == 0 ? "Late " + i : null);
+        }
+        return xml.append("</osm>\n").toString();
+    }
+
+    private static void node(StringBuilder xml, int i, String name) {
+        xml.append(String.format("<node id=\"%d\" lat=\"%.4f\" lon=\"%.4f\">",
+                1000 + i, 37.80 + i * 1e-3, -122.30 + (i % 10) * 1e-3));
+        if (name != null) {
+            xml.append(String.format("<tag k=\"name\" v=\"%s\"/>", name));
+        }
+        xml.append("</node>\n");
+    }
+
+    @Test
+    public void testGzipInput() throws Exception {
+        File gz = folder.newFile("tiny-clean.osm.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+            out.write(Files.readAllBytes(Paths.get(OSM_DB_PATH_TINY)));
+        }
+        assertSameGraph(new GraphDB(OSM_DB_PATH_TINY, true), new GraphDB(gz.getPath()));
+        assertSameGraph(new GraphDB(OSM_DB_PATH_TINY, true), new GraphDB(gz.getPath(), true));
+    }
+
+    private static void assertSameGraph(GraphDB expected, GraphDB actual) {
+        assertEquals(toList(expected.vertices()), toList(actual.vertices()));
+        for (long v : expected.vertices()) {
+            assertEquals(toList(expected.adjacent(v)), toList(actual.adjacent(v)));
+            assertEquals(expected.lon(v), actual.lon(v), 0);
+            assertEquals(expected.lat(v), actual.lat(v), 0);
+            assertEquals(expected.getWayNames(v), actual.getWayNames(v));
+        }
+        assertEquals(expected.keysWithPrefixOf(""), actual.keysWithPrefixOf(""));
+        for (String name : expected.keysWithPrefixOf("")) {
+            assertEquals(expected.getLocations(name), actual.getLocations(name));
+        }
+    }
+
+    private static List<Long> toList(Iterable<Long> items) {
+        List<Long> list = new ArrayList<>();
+        for (long item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+}
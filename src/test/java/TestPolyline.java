@@ -0,0 +1,46 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the polyline encoding against the published example and that routes survive a
+ * round trip to within the encoding's precision.
+ */
+public class TestPolyline {
+    private static final double DELTA = 0.5e-6;
+
+    @Test
+    public void testKnownEncoding() {
+        double[] lats = {38.5, 40.7, 43.252};
+        double[] lons = {-120.2, -120.95, -126.453};
+        String encoded = Polyline.encode(lats, lons, 3);
+        assertEquals("_izlhA~rlgdF_{geC~ywl@_kwzCn`{nI", encoded);
+        double[][] decoded = Polyline.decode(encoded);
+        assertArrayEquals(lats, decoded[0], DELTA);
+        assertArrayEquals(lons, decoded[1], DELTA);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(18);
+        int n = 500;
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = 37.82 + random.nextDouble() * 0.07;
+            lons[i] = -122.30 + random.nextDouble() * 0.09;
+        }
+        double[][] decoded = Polyline.decode(Polyline.encode(lats, lons, n));
+        assertArrayEquals(lats, decoded[0], DELTA);
+        assertArrayEquals(lons, decoded[1], DELTA);
+        assertEquals(0, Polyline.decode(Polyline.encode(lats, lons, 0))[0].length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        Polyline.decode("_izlhA~rlgdF_{geC");
+    }
+}
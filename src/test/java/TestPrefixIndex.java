@@ -0,0 +1,164 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks prefix, ranked and fuzzy queries against a scan of all names, including limits,
+ * prefixes that match nothing and names that are prefixes of other names.
+ */
+public class TestPrefixIndex {
+    @Test
+    public void testMatchesScan() {
+        Random random = new Random(20);
+        Map<String, ArrayList<Long>> ids = new HashMap<>();
+        Map<Long, String> fullNames = new HashMap<>();
+        long id = 0;
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int c = 0; c < length; c++) {
+                sb.append("abc d".charAt(random.nextInt(5)));
+            }
+            String clean = sb.toString();
+            ids.computeIfAbsent(clean, k -> new ArrayList<>()).add(id);
+            fullNames.put(id, clean.toUpperCase() + "#" + id);
+            id++;
+        }
+        PrefixIndex index = new PrefixIndex(ids, fullNames::get);
+        assertEquals(ids.size(), index.size());
+
+        TreeMap<String, ArrayList<Long>> sorted = new TreeMap<>(ids);
+        for (String prefix : new String[]{"", "a", "ab", "abc", "d d", "ddddddddd", "e", " "}) {
+            List<String> expected = new ArrayList<>();
+            for (Map.Entry<String, ArrayList<Long>> entry : sorted.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    for (long i : entry.getValue()) {
+                        expected.add(fullNames.get(i));
+                    }
+                }
+            }
+            assertEquals(expected, index.namesWithPrefix(prefix, Integer.MAX_VALUE));
+            for (int limit : new int[]{0, 1, 7}) {
+                assertEquals(expected.subList(0, Math.min(limit, expected.size())),
+                        index.namesWithPrefix(prefix, limit));
+            }
+        }
+    }
+
+    @Test
+    public void testTopMatchesSort() {
+        Random random = new Random(21);
+        Map<String, ArrayList<Long>> ids = new HashMap<>();
+        long id = 0;
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+            for (int c = 0; c < length; c++) {
+                sb.append("abcd".charAt(random.nextInt(4)));
+            }
+            /* Skewed counts, so that many names tie and a few are much more common. */
+            int count = random.nextInt(10) == 0 ? 1 + random.nextInt(20) : 1;
+            for (int j = 0; j < count; j++) {
+                ids.computeIfAbsent(sb.toString(), k -> new ArrayList<>()).add(id++);
+            }
+        }
+        Map<Long, String> fullNames = new HashMap<>();
+        for (Map.Entry<String, ArrayList<Long>> entry : ids.entrySet()) {
+            for (long i : entry.getValue()) {
+                fullNames.put(i, entry.getKey().toUpperCase() + "#" + i);
+            }
+        }
+        PrefixIndex index = new PrefixIndex(ids, fullNames::get);
+
+        for (String prefix : new String[]{"", "a", "bc", "dda", "abcdab", "e"}) {
+            List<String> keys = new ArrayList<>();
+            for (String key : ids.keySet()) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+            keys.sort(Comparator.<String>comparingInt(key -> -ids.get(key).size())
+                    .thenComparing(Comparator.naturalOrder()));
+            List<String> expected = new ArrayList<>();
+            for (String key : keys) {
+                expected.add(fullNames.get(ids.get(key).get(0)));
+            }
+            for (int k : new int[]{0, 1, 5, 50, Integer.MAX_VALUE}) {
+                assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                        index.topWithPrefix(prefix, k));
+            }
+        }
+    }
+
+    @Test
+    public void testFuzzyMatchesScan() {
+        Random random = new Random(22);
+        Map<String, ArrayList<Long>> ids = new HashMap<>();
+        long id = 0;
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(9);
+            for (int c = 0; c < length; c++) {
+                sb.append("abcde ".charAt(random.nextInt(6)));
+            }
+            int count = 1 + random.nextInt(3);
+            for (int j = 0; j < count; j++) {
+                ids.computeIfAbsent(sb.toString(), k -> new ArrayList<>()).add(id++);
+            }
+        }
+        PrefixIndex index = new PrefixIndex(ids, i -> "#" + i);
+
+        for (String query : new String[]{"", "a", "abc", "bad cab", "eeeeeeee", "xyz"}) {
+            for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+                List<String> keys = new ArrayList<>();
+                for (String key : ids.keySet()) {
+                    if (levenshtein(query, key) <= maxDistance) {
+                        keys.add(key);
+                    }
+                }
+                keys.sort(Comparator.<String>comparingInt(key -> levenshtein(query, key))
+                        .thenComparingInt(key -> -ids.get(key).size())
+                        .thenComparing(Comparator.naturalOrder()));
+                List<String> expected = new ArrayList<>();
+                for (String key : keys) {
+                    expected.add("#" + ids.get(key).get(0));
+                }
+                for (int k : new int[]{1, 10, Integer.MAX_VALUE}) {
+                    assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                            index.fuzzyMatches(query, maxDistance, k));
+                }
+            }
+        }
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    d[i][j] = Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1,
+                            d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    @Test
+    public void testEmpty() {
+        PrefixIndex index = new PrefixIndex(new HashMap<String, List<Long>>(), i -> "");
+        assertEquals(0, index.namesWithPrefix("", 10).size());
+        assertEquals(0, index.topWithPrefix("", 10).size());
+        assertEquals(0, index.fuzzyMatches("a", 2, 10).size());
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that every PNG encoder setting, serial and parallel, decodes to the exact pixels it
+ * was given, and that encoder specs round trip.
+ */
+public class TestRasterEncoder {
+
+    @Test
+    public void testPngRoundTrip() throws Exception {
+        /* Taller than a stripe and not a multiple of one, so the parallel path is used. */
+        BufferedImage img = testImage(301, 517);
+        int[] expected = img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0,
+                img.getWidth());
+        for (String mode : new String[]{"png", "png-parallel"}) {
+            for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+                for (int level : new int[]{0, 1, 6, 9}) {
+                    String spec = mode + ":" + level + ":" + filter.name().toLowerCase();
+                    RasterEncoder encoder = RasterEncoder.forName(spec);
+                    assertEquals(spec, encoder.spec());
+                    BufferedImage decoded = ImageIO.read(
+                            new ByteArrayInputStream(encoder.encode(img)));
+                    assertArrayEquals(spec, expected, decoded.getRGB(0, 0, img.getWidth(),
+                            img.getHeight(), null, 0, img.getWidth()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCombineAdler32() {
+        byte[] data = new byte[100000];
+        new Random(7).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 31337);
+        Adler32 second = new Adler32();
+        second.update(data, 31337, data.length - 31337);
+        assertEquals(whole.getValue(), PngEncoder.combineAdler32(first.getValue(),
+                second.getValue(), data.length - 31337));
+    }
+
+    @Test
+    public void testSpecs() {
+        assertEquals("imageio", RasterEncoder.forName("imageio").spec());
+        assertEquals("png:6:up", RasterEncoder.forName("PNG").spec());
+        assertEquals("jpeg:0.5", RasterEncoder.forName("jpeg:0.5").spec());
+        for (String bad : new String[]{"gif", "png:10", "png:1:zigzag", "jpeg:2", "png:1:up:x"}) {
+            try {
+                RasterEncoder.forName(bad);
+                throw new AssertionError(bad + " was accepted");
+            } catch (IllegalArgumentException expected) {
+                /* Rejected, as it should be. */
+            }
+        }
+    }
+
+    /** Smooth gradients with noise, roughly like map tiles to a filter. */
+    private static BufferedImage testImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width) ^ (random.nextInt(8));
+                int g = y * 255 / height;
+                int b = (x + y) & 0xff;
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+}
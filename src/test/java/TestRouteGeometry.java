@@ -0,0 +1,99 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the per-depth routes are what Douglas-Peucker keeps at each tolerance, that
+ * deeper depths keep more of the route, and that straight runs collapse to their ends.
+ */
+public class TestRouteGeometry {
+    private static final TilePyramid PYRAMID = new TilePyramid(MapServer.ROOT_ULLON,
+            MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT,
+            MapServer.TILE_SIZE, 7);
+
+    @Test
+    public void testMatchesDouglasPeucker() {
+        Random random = new Random(19);
+        for (int trial = 0; trial < 20; trial++) {
+            int n = 2 + random.nextInt(400);
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            lats[0] = 37.85;
+            lons[0] = -122.25;
+            for (int i = 1; i < n; i++) {
+                lats[i] = lats[i - 1] + (random.nextDouble() - 0.3) * 2e-4;
+                lons[i] = lons[i - 1] + (random.nextDouble() - 0.3) * 2e-4;
+            }
+            RouteGeometry geometry = new RouteGeometry(lats, lons, PYRAMID);
+            assertEquals(PYRAMID.maxDepth() + 1, geometry.depths());
+            int previous = 0;
+            for (int d = 0; d < geometry.depths(); d++) {
+                boolean[] keep = new boolean[n];
+                keep[0] = true;
+                keep[n - 1] = true;
+                douglasPeucker(lons, lats, d, 0, n - 1, keep);
+                int kept = 0;
+                for (boolean k : keep) {
+                    kept += k ? 1 : 0;
+                }
+                double[] expectedLats = new double[kept];
+                double[] expectedLons = new double[kept];
+                for (int i = 0, k = 0; i < n; i++) {
+                    if (keep[i]) {
+                        expectedLats[k] = lats[i];
+                        expectedLons[k] = lons[i];
+                        k++;
+                    }
+                }
+                assertArrayEquals(expectedLats, geometry.lats(d), 0);
+                assertArrayEquals(expectedLons, geometry.lons(d), 0);
+                assertTrue(kept >= previous);
+                previous = kept;
+                double[][] decoded = Polyline.decode(geometry.polylines().get(d));
+                assertArrayEquals(expectedLats, decoded[0], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testStraightRunCollapses() {
+        double[] lats = new double[50];
+        double[] lons = new double[50];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = 37.85 + i * 1e-4;
+            lons[i] = -122.25 + i * 2e-4;
+        }
+        RouteGeometry geometry = new RouteGeometry(lats, lons, PYRAMID);
+        for (int d = 0; d < geometry.depths(); d++) {
+            assertArrayEquals(new double[]{lats[0], lats[49]}, geometry.lats(d), 0);
+        }
+        assertEquals(0, new RouteGeometry(new double[0], new double[0], PYRAMID)
+                .lats(3).length);
+    }
+
+    /** Textbook recursive Douglas-Peucker in pixels at depth. */
+    private static void douglasPeucker(double[] lons, double[] lats, int depth, int first,
+                                       int last, boolean[] keep) {
+        double sx = 1 / PYRAMID.lonDPP(depth);
+        double sy = 1 / PYRAMID.latDPP(depth);
+        int split = -1;
+        double max = RouteGeometry.TOLERANCE_PX;
+        for (int i = first + 1; i < last; i++) {
+            double d = RouteGeometry.segmentDistance(lons[i] * sx, lats[i] * sy,
+                    lons[first] * sx, lats[first] * sy, lons[last] * sx, lats[last] * sy);
+            if (d > max) {
+                max = d;
+                split = i;
+            }
+        }
+        if (split >= 0) {
+            keep[split] = true;
+            douglasPeucker(lons, lats, depth, first, split, keep);
+            douglasPeucker(lons, lats, depth, split, last, keep);
+        }
+    }
+}
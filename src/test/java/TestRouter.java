@@ -44,6 +44,51 @@ public class TestRouter {
         }
     }
 
+    @Test
+    public void testShortestPathBidirectional() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), Router.Mode.BIDIRECTIONAL);
+            assertEquals("Bidirectional search did not match the expected results",
+                    expectedResults.get(i), actual);
+        }
+    }
+
+    @Test
+    public void testShortestPathContractionHierarchy() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), Router.Mode.CH);
+            assertEquals("Contraction hierarchy did not match the expected results",
+                    expectedResults.get(i), actual);
+        }
+    }
+
+    @Test
+    public void testShortestPathLandmarks() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), Router.Mode.ALT);
+            assertEquals("ALT search did not match the expected results",
+                    expectedResults.get(i), actual);
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
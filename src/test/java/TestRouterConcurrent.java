@@ -0,0 +1,90 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stress test for routing from many threads at once: every query must return exactly what it
+ * returns when the queries are run one after another, and loading a second graph must not
+ * disturb the first.
+ */
+public class TestRouterConcurrent {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final int NUM_QUERIES = 100;
+    private static final int NUM_THREADS = 8;
+    private static final int NUM_ROUNDS = 3;
+    private static GraphDB graph;
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testConcurrentMatchesSerial() throws Exception {
+        Random random = new Random(3);
+        double[][] queries = new double[NUM_QUERIES][];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries[i] = new double[]{randomLon(random), randomLat(random),
+                randomLon(random), randomLat(random)};
+        }
+        List<List<Long>> serial = new ArrayList<>();
+        for (double[] q : queries) {
+            serial.add(Router.shortestPath(graph, q[0], q[1], q[2], q[3]));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            for (int round = 0; round < NUM_ROUNDS; round++) {
+                List<Future<List<Long>>> futures = new ArrayList<>();
+                for (double[] q : queries) {
+                    Callable<List<Long>> task = () ->
+                            Router.shortestPath(graph, q[0], q[1], q[2], q[3]);
+                    futures.add(pool.submit(task));
+                }
+                for (int i = 0; i < NUM_QUERIES; i++) {
+                    assertEquals("Concurrent result differs from serial result for query " + i,
+                            serial.get(i), futures.get(i).get());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testGraphsAreIndependent() {
+        assertEquals(7, TestGraphBuilding.countIterableItems(graphTiny.vertices()));
+        List<Long> expected = new ArrayList<>();
+        expected.add(22L);
+        expected.add(46L);
+        expected.add(66L);
+        assertEquals(expected, Router.shortestPath(graphTiny, 0.2, 38.2, 0.6, 38.6));
+    }
+
+    private static double randomLon(Random random) {
+        return MapServer.ROOT_ULLON
+                + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+    }
+
+    private static double randomLat(Random random) {
+        return MapServer.ROOT_LRLAT
+                + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+    }
+}
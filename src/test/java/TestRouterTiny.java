@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by hug, 4/9/2018. Basic tests for A* on the tiny graph.
@@ -63,4 +64,55 @@ public class TestRouterTiny {
         expected.add(55L);
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testBidirectional() {
+        List<Long> expected = new ArrayList<>();
+        expected.add(41L);
+        expected.add(63L);
+        expected.add(66L);
+        expected.add(46L);
+        assertEquals(expected, Router.shortestPath(graphTiny, 0.4, 38.1, 0.4, 38.6,
+                Router.Mode.BIDIRECTIONAL));
+        List<Long> self = new ArrayList<>();
+        self.add(22L);
+        assertEquals(self, Router.shortestPath(graphTiny, 0.2, 38.2, 0.2, 38.2,
+                Router.Mode.BIDIRECTIONAL));
+    }
+
+    @Test
+    public void testAllModesAgree() {
+        for (long v : graphTiny.vertices()) {
+            for (long w : graphTiny.vertices()) {
+                double stlon = graphTiny.lon(v);
+                double stlat = graphTiny.lat(v);
+                double destlon = graphTiny.lon(w);
+                double destlat = graphTiny.lat(w);
+                List<Long> expected = Router.shortestPath(graphTiny, stlon, stlat,
+                        destlon, destlat);
+                for (Router.Mode mode : Router.Mode.values()) {
+                    assertEquals(mode + " path from " + v + " to " + w, expected,
+                            Router.shortestPath(graphTiny, stlon, stlat, destlon, destlat, mode));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLandmarkBoundsAreAdmissible() {
+        CompactGraph c = graphTiny.compact();
+        Landmarks landmarks = Landmarks.select(c, 3);
+        assertEquals(3, landmarks.count());
+        for (long v : graphTiny.vertices()) {
+            for (long w : graphTiny.vertices()) {
+                List<Long> path = Router.shortestPath(graphTiny, graphTiny.lon(v),
+                        graphTiny.lat(v), graphTiny.lon(w), graphTiny.lat(w));
+                double length = 0;
+                for (int i = 1; i < path.size(); i++) {
+                    length += graphTiny.distance(path.get(i - 1), path.get(i));
+                }
+                assertTrue(landmarks.lowerBound(c.indexOf(v), c.indexOf(w)) <= length + 1e-9);
+            }
+        }
+    }
 }
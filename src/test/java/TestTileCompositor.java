@@ -0,0 +1,84 @@
+import org.junit.Test;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that parallel composing draws exactly what Graphics.drawImage draws, for tiles of
+ * several image types and for missing tiles, and that a failing tile fails the whole raster.
+ */
+public class TestTileCompositor {
+    private static final int SIZE = MapServer.TILE_SIZE;
+
+    @Test
+    public void testMatchesDrawImage() {
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_INT_ARGB};
+        Random random = new Random(3);
+        String[][] grid = new String[3][4];
+        Map<String, BufferedImage> tiles = new HashMap<>();
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid[r].length; c++) {
+                grid[r][c] = "t" + r + "_" + c;
+                if ((r + c) % 5 == 4) {
+                    continue;
+                }
+                BufferedImage tile = new BufferedImage(SIZE, SIZE, types[(r + c) % types.length]);
+                for (int y = 0; y < SIZE; y++) {
+                    for (int x = 0; x < SIZE; x++) {
+                        tile.setRGB(x, y, random.nextInt());
+                    }
+                }
+                tiles.put(grid[r][c], tile);
+            }
+        }
+
+        BufferedImage expected = new BufferedImage(4 * SIZE, 3 * SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = expected.getGraphics();
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid[r].length; c++) {
+                graphic.drawImage(tiles.get(grid[r][c]), c * SIZE, r * SIZE, null);
+            }
+        }
+
+        for (int threads : new int[]{1, 4}) {
+            BufferedImage actual = new BufferedImage(4 * SIZE, 3 * SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            new TileCompositor(threads).compose(grid,
+                    name -> TileCompositor.toIntRgb(tiles.get(name)), actual);
+            assertArrayEquals(pixels(expected), pixels(actual));
+        }
+    }
+
+    @Test
+    public void testFailingTileFailsCompose() {
+        String[][] grid = {{"a", "b", "c", "d"}, {"e", "f", "g", "h"}};
+        for (int threads : new int[]{1, 4}) {
+            BufferedImage dest = new BufferedImage(4 * SIZE, 2 * SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            try {
+                new TileCompositor(threads).compose(grid, name -> {
+                    if ("g".equals(name)) {
+                        throw new IllegalArgumentException(name);
+                    }
+                    return null;
+                }, dest);
+                fail("A failing tile must fail compose");
+            } catch (IllegalArgumentException e) {
+                assertEquals("g", e.getMessage());
+            }
+        }
+    }
+
+    private static int[] pixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks tile naming, ETag stability across changes on disk, the bound on mapped tiles and
+ * If-None-Match matching.
+ */
+public class TestTileFiles {
+    private static final TilePyramid PYRAMID = new TilePyramid(MapServer.ROOT_ULLON,
+            MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT,
+            MapServer.TILE_SIZE, 7);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFileNames() {
+        TileFiles files = new TileFiles(folder.getRoot().getPath(), PYRAMID, 60, 1 << 20);
+        assertEquals("d3_x1_y2.png", files.fileName(3, 1, 2));
+        assertEquals("d0_x0_y0.png", files.fileName(0, 0, 0));
+        assertNull(files.fileName(2, 4, 0));
+        assertNull(files.fileName(2, 0, -1));
+        assertNull(files.fileName(8, 0, 0));
+    }
+
+    @Test
+    public void testEtagFollowsContents() throws Exception {
+        TileFiles files = new TileFiles(folder.getRoot().getPath(), PYRAMID, 60, 1 << 20);
+        assertNull(files.tile("d0_x0_y0.png"));
+        File file = folder.newFile("d0_x0_y0.png");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        String etag = files.tile("d0_x0_y0.png").etag();
+        assertEquals(etag, files.tile("d0_x0_y0.png").etag());
+
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4});
+        assertNotEquals(etag, files.tile("d0_x0_y0.png").etag());
+        assertTrue(file.delete());
+        assertNull(files.tile("d0_x0_y0.png"));
+        assertEquals(0, files.size());
+    }
+
+    @Test
+    public void testMappedTilesAreBounded() throws Exception {
+        /* Room for two tiles of 100 bytes and their entries, not three. */
+        TileFiles files = new TileFiles(folder.getRoot().getPath(), PYRAMID, 60, 800);
+        for (String name : new String[]{"d1_x0_y0.png", "d1_x1_y0.png", "d1_x0_y1.png"}) {
+            Files.write(folder.newFile(name).toPath(), new byte[100]);
+            assertNotNull(files.tile(name).etag());
+        }
+        assertEquals(2, files.size());
+        assertEquals(1L, files.stats().get("evictions"));
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(TileFiles.matches("\"a-1\"", "\"a-1\""));
+        assertTrue(TileFiles.matches("\"b-2\", W/\"a-1\"", "\"a-1\""));
+        assertTrue(TileFiles.matches("*", "\"a-1\""));
+        assertFalse(TileFiles.matches("\"a-2\"", "\"a-1\""));
+        assertFalse(TileFiles.matches(null, "\"a-1\""));
+    }
+}
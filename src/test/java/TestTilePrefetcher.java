@@ -0,0 +1,57 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which tiles are prefetched around a viewport and how prefetched tiles are counted.
+ */
+public class TestTilePrefetcher {
+    private static final TilePyramid PYRAMID = new TilePyramid(0, 8, 8, 0, 256, 3);
+
+    @Test
+    public void testCandidates() {
+        TilePrefetcher prefetcher = new TilePrefetcher(PYRAMID, name -> false, name -> true);
+        /* A 2x2 grid at depth 2 in the upper left corner: the ring is clipped by the edges. */
+        List<String> names = prefetcher.candidates(2, 0, 0, 1, 1);
+        assertEquals(5 + 1 + 4 * 4, names.size());
+        assertTrue(names.subList(0, 5).contains("d2_x2_y2.png"));
+        assertEquals("d1_x0_y0.png", names.get(5));
+        assertTrue(names.contains("d3_x3_y3.png"));
+        assertFalse(names.contains("d2_x0_y0.png"));
+    }
+
+    @Test
+    public void testPrefetchAndHits() throws Exception {
+        Set<String> cache = ConcurrentHashMap.newKeySet();
+        cache.add("d1_x0_y0.png");
+        TilePrefetcher prefetcher = new TilePrefetcher(PYRAMID, cache::contains, cache::add);
+        prefetcher.viewed(new String[][]{{"d2_x0_y0.png", "d2_x1_y0.png"},
+            {"d2_x0_y1.png", "d2_x1_y1.png"}});
+        prefetcher.awaitIdle();
+        assertTrue(cache.contains("d2_x2_y1.png"));
+        assertTrue(cache.contains("d3_x0_y0.png"));
+        prefetcher.used("d2_x2_y1.png");
+        prefetcher.used("d2_x2_y1.png");
+        prefetcher.used("d1_x0_y0.png");
+        /* Evicted before it was used: read from disk again, so no hit. */
+        cache.remove("d3_x0_y0.png");
+        prefetcher.used("d3_x0_y0.png");
+        assertEquals(21L, prefetcher.stats().get("prefetched"));
+        assertEquals(1L, prefetcher.stats().get("already_cached"));
+        assertEquals(1L, prefetcher.stats().get("hits"));
+    }
+
+    @Test
+    public void testParse() {
+        assertArrayEquals(new int[]{7, 100, 97}, TilePrefetcher.parse("d7_x100_y97.png"));
+        assertNull(TilePrefetcher.parse("tiles/7/100/97.png"));
+    }
+}
@@ -0,0 +1,113 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the table-driven Rasterer against the direct computation it replaced, and the
+ * pyramid with other root bounds and depths. TestRasterer checks raster_results.txt.
+ */
+public class TestTilePyramid {
+    private static final TilePyramid BERKELEY = new TilePyramid(MapServer.ROOT_ULLON,
+            MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT,
+            MapServer.TILE_SIZE, 7);
+
+    @Test
+    public void testMatchesDirectComputation() {
+        Rasterer rasterer = new Rasterer(BERKELEY);
+        Random random = new Random(11);
+        double width = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+        double height = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+        for (int i = 0; i < 2000; i++) {
+            double ullon = MapServer.ROOT_ULLON + random.nextDouble() * width;
+            double ullat = MapServer.ROOT_LRLAT + random.nextDouble() * height;
+            double lrlon = ullon + random.nextDouble() * (MapServer.ROOT_LRLON - ullon);
+            double lrlat = ullat - random.nextDouble() * (ullat - MapServer.ROOT_LRLAT);
+            Map<String, Double> params = query(ullon, ullat, lrlon, lrlat,
+                    100 + random.nextInt(2000));
+            Map<String, Object> expected = directRaster(params);
+            Map<String, Object> actual = rasterer.getMapRaster(params);
+            for (String key : expected.keySet()) {
+                if (key.equals("render_grid")) {
+                    assertArrayEquals((String[][]) expected.get(key),
+                            (String[][]) actual.get(key));
+                } else {
+                    assertEquals(key, expected.get(key), actual.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOtherBoundsAndDepths() {
+        TilePyramid pyramid = new TilePyramid(0, 10, 10, 0, 256, 10);
+        assertEquals(10, pyramid.depthFor(1e-9));
+        assertEquals(0, pyramid.depthFor(1));
+        assertEquals(9, pyramid.depthFor(10.0 / 256 / 512));
+        assertEquals("d10_x1023_y5.png", pyramid.fileName(10, 1023, 5));
+        assertSame(pyramid.fileName(3, 2, 1), pyramid.fileName(3, 2, 1));
+
+        Map<String, Object> result = new Rasterer(pyramid).getMapRaster(
+                query(2.5, 7.5, 5, 5, 256));
+        assertEquals(2, result.get("depth"));
+        assertArrayEquals(new String[][]{{"d2_x1_y1.png", "d2_x2_y1.png"},
+            {"d2_x1_y2.png", "d2_x2_y2.png"}}, (String[][]) result.get("render_grid"));
+        assertEquals(2.5, (double) result.get("raster_ul_lon"), 0);
+        assertEquals(true, result.get("query_success"));
+        assertEquals(false, new Rasterer(pyramid).getMapRaster(
+                query(11, 7.5, 12, 5, 256)).get("query_success"));
+    }
+
+    private static Map<String, Double> query(double ullon, double ullat, double lrlon,
+                                             double lrlat, double w) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", lrlon);
+        params.put("lrlat", lrlat);
+        params.put("w", w);
+        params.put("h", w);
+        return params;
+    }
+
+    /** The computation Rasterer did before the pyramid, for queries inside the root tile. */
+    private static Map<String, Object> directRaster(Map<String, Double> params) {
+        double rootUllon = MapServer.ROOT_ULLON;
+        double rootLrlon = MapServer.ROOT_LRLON;
+        double rootUllat = MapServer.ROOT_ULLAT;
+        double rootLrlat = MapServer.ROOT_LRLAT;
+        double ullon = params.get("ullon");
+        double lrlon = params.get("lrlon");
+        double ullat = params.get("ullat");
+        double lrlat = params.get("lrlat");
+        double lonDPP = (lrlon - ullon) / params.get("w");
+        double exact = Math.log((rootLrlon - rootUllon) / (lonDPP * MapServer.TILE_SIZE))
+                / Math.log(2);
+        int depth = Math.min((int) Math.ceil(exact), 7);
+        double picWidth = (rootLrlon - rootUllon) / Math.pow(2, depth);
+        double picHeight = (rootUllat - rootLrlat) / Math.pow(2, depth);
+        int ulx = (int) Math.floor((ullon - rootUllon) / picWidth);
+        int lrx = (int) Math.floor((lrlon - rootUllon) / picWidth);
+        int uly = (int) Math.floor((rootUllat - ullat) / picHeight);
+        int lry = (int) Math.floor((rootUllat - lrlat) / picHeight);
+        String[][] grid = new String[lry - uly + 1][lrx - ulx + 1];
+        for (int i = 0; i < grid.length; i++) {
+            for (int j = 0; j < grid[i].length; j++) {
+                grid[i][j] = "d" + depth + "_x" + (j + ulx) + "_y" + (i + uly) + ".png";
+            }
+        }
+        Map<String, Object> results = new HashMap<>();
+        results.put("render_grid", grid);
+        results.put("raster_ul_lon", rootUllon + ulx * picWidth);
+        results.put("raster_lr_lon", rootUllon + (lrx + 1) * picWidth);
+        results.put("raster_ul_lat", rootUllat - uly * picHeight);
+        results.put("raster_lr_lat", rootUllat - (lry + 1) * picHeight);
+        results.put("depth", depth);
+        return results;
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks word searches against a scan of all names, with repeated words, long posting lists
+ * whose gaps need several bytes, and queries with unknown words.
+ */
+public class TestTokenIndex {
+    private static final String[] WORDS = {"doe", "memorial", "library", "lib", "hall", "cafe",
+        "the", "a", "park", "parking", "berkeley", "bowl"};
+
+    @Test
+    public void testMatchesScan() {
+        Random random = new Random(24);
+        Map<String, ArrayList<Long>> names = new HashMap<>();
+        for (long id = 0; id < 5000; id++) {
+            StringBuilder sb = new StringBuilder();
+            int words = 1 + random.nextInt(4);
+            for (int w = 0; w < words; w++) {
+                sb.append(w > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            /* Rare names, so that some posting lists have gaps of over 127 locations. */
+            if (random.nextInt(200) == 0) {
+                sb.append(" rare");
+            }
+            names.computeIfAbsent(sb.toString(), k -> new ArrayList<>()).add(id * 7);
+        }
+        TokenIndex index = new TokenIndex(names);
+        assertEquals(WORDS.length + 1, index.size());
+
+        String[] queries = {"library", "lib", "doe li", "memorial library hall", "park",
+            "parking the", "rare", "rare b", "a", "b", "zzz", "doe zzz", "zzz doe", "", "   "};
+        for (String query : queries) {
+            List<String> words = Arrays.asList(TokenIndex.tokenize(query));
+            List<Long> expected = new ArrayList<>();
+            for (Map.Entry<String, ArrayList<Long>> entry : new TreeMap<>(names).entrySet()) {
+                if (!words.isEmpty() && matches(entry.getKey(), words)) {
+                    expected.addAll(entry.getValue());
+                }
+            }
+            for (int limit : new int[]{Integer.MAX_VALUE, 3}) {
+                long[] expectedIds = new long[Math.min(limit, expected.size())];
+                for (int i = 0; i < expectedIds.length; i++) {
+                    expectedIds[i] = expected.get(i);
+                }
+                assertArrayEquals(query, expectedIds, index.search(query, limit));
+            }
+        }
+    }
+
+    @Test
+    public void testNamedAndIds() {
+        Map<String, ArrayList<Long>> names = new HashMap<>();
+        names.put("doe library", new ArrayList<>(Arrays.asList(5L, 3L)));
+        names.put("cafe", new ArrayList<>(Arrays.asList(9L)));
+        names.put("hall", new ArrayList<>(Arrays.asList(1L, 2L, 4L)));
+        TokenIndex index = new TokenIndex(names);
+        assertEquals(6, index.locations());
+        assertArrayEquals(new int[]{1, 2}, index.named("doe library"));
+        assertArrayEquals(new int[0], index.named("doe"));
+        assertArrayEquals(new int[]{1, 2}, index.matches("lib"));
+        long[] ids = new long[index.locations()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = index.id(i);
+        }
+        assertArrayEquals(new long[]{9, 5, 3, 1, 2, 4}, ids);
+    }
+
+    private static boolean matches(String name, List<String> words) {
+        List<String> nameWords = Arrays.asList(name.split(" "));
+        for (int w = 0; w < words.size() - 1; w++) {
+            if (!nameWords.contains(words.get(w))) {
+                return false;
+            }
+        }
+        String last = words.get(words.size() - 1);
+        for (String word : nameWords) {
+            if (word.startsWith(last)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}